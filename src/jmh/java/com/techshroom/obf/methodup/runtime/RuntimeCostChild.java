@@ -0,0 +1,174 @@
+package com.techshroom.obf.methodup.runtime;
+
+import java.io.File;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * The child JVM of {@link RuntimeCostHarness}. Loads every class of a jar
+ * without initializing it, links it, scans it by reflection, then writes
+ * what it measured to a properties file.
+ * 
+ * @author Kenzie Togami
+ */
+final class RuntimeCostChild {
+
+    static final String CLASSES = "classes";
+    static final String FAILURES = "failures";
+    static final String METHODS = "methods";
+    static final String LOAD_MICROS = "loadMicros";
+    static final String LINK_MICROS = "linkMicros";
+    static final String METASPACE = "metaspace";
+    static final String COLD_SCAN_MICROS = "coldScanMicros";
+    static final String WARM_SCAN_MICROS = "warmScanMicros";
+
+    // the first few are enough to tell what went wrong
+    private static final int MAX_REPORTED_FAILURES = 10;
+
+    /**
+     * @param args
+     *            - The results file, the jar, the jar's dependencies in the
+     *            system path format (may be empty), and how many warm scans
+     *            to average over
+     * @throws Exception
+     *             if the jar can't be read or the results can't be written
+     */
+    public static void main(String[] args) throws Exception {
+        Path results = Paths.get(args[0]);
+        Path jar = Paths.get(args[1]);
+        List<URL> urls = new ArrayList<>();
+        urls.add(jar.toUri().toURL());
+        for (String entry : args[2].split(File.pathSeparator)) {
+            if (!entry.isEmpty()) {
+                urls.add(Paths.get(entry).toUri().toURL());
+            }
+        }
+        int warmScans = Integer.parseInt(args[3]);
+        List<String> names = classNames(jar);
+
+        long metaspaceBefore = metaspaceUsed();
+        // only the platform as parent, so the harness' own dependencies
+        // can't stand in for the jar's
+        ClassLoader loader =
+                new URLClassLoader(urls.toArray(new URL[0]), ClassLoader
+                        .getSystemClassLoader().getParent());
+        int failures = 0;
+        List<Class<?>> loaded = new ArrayList<>(names.size());
+        long start = System.nanoTime();
+        for (String name : names) {
+            try {
+                loaded.add(Class.forName(name, false, loader));
+            } catch (ClassNotFoundException | LinkageError e) {
+                failures = reportFailure(failures, name, e);
+            }
+        }
+        long loadNanos = System.nanoTime() - start;
+
+        // reflecting on a class links it, which is where it is verified;
+        // fields are cheap to reflect on, so this is mostly the linking
+        List<Class<?>> linked = new ArrayList<>(loaded.size());
+        start = System.nanoTime();
+        for (Class<?> type : loaded) {
+            try {
+                type.getDeclaredFields();
+                linked.add(type);
+            } catch (LinkageError e) {
+                failures = reportFailure(failures, type.getName(), e);
+            }
+        }
+        long linkNanos = System.nanoTime() - start;
+        long metaspace = metaspaceUsed() - metaspaceBefore;
+
+        // the first scan builds the reflection data, later ones copy it
+        start = System.nanoTime();
+        long methods = scan(linked);
+        long coldScanNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < warmScans; i++) {
+            scan(linked);
+        }
+        long warmScanNanos = (System.nanoTime() - start) / warmScans;
+
+        Properties stats = new Properties();
+        stats.setProperty(CLASSES, Integer.toString(linked.size()));
+        stats.setProperty(FAILURES, Integer.toString(failures));
+        stats.setProperty(METHODS, Long.toString(methods));
+        stats.setProperty(LOAD_MICROS, Long.toString(TimeUnit.NANOSECONDS
+                .toMicros(loadNanos)));
+        stats.setProperty(LINK_MICROS, Long.toString(TimeUnit.NANOSECONDS
+                .toMicros(linkNanos)));
+        stats.setProperty(METASPACE, Long.toString(metaspace));
+        stats.setProperty(COLD_SCAN_MICROS, Long.toString(TimeUnit.NANOSECONDS
+                .toMicros(coldScanNanos)));
+        stats.setProperty(WARM_SCAN_MICROS, Long.toString(TimeUnit.NANOSECONDS
+                .toMicros(warmScanNanos)));
+        try (Writer writer =
+                Files.newBufferedWriter(results, StandardCharsets.UTF_8)) {
+            stats.store(writer, null);
+        }
+    }
+
+    private static List<String> classNames(Path jar) throws Exception {
+        // sorted, so both jars are loaded in the same order
+        TreeSet<String> names = new TreeSet<>();
+        try (JarFile file = new JarFile(jar.toFile())) {
+            Enumeration<JarEntry> entries = file.entries();
+            while (entries.hasMoreElements()) {
+                String name = entries.nextElement().getName();
+                if (name.endsWith(".class") && !name.startsWith("META-INF/")
+                        && !name.endsWith("module-info.class")) {
+                    names.add(name.substring(0,
+                                             name.length()
+                                                     - ".class".length())
+                            .replace('/', '.'));
+                }
+            }
+        }
+        return new ArrayList<>(names);
+    }
+
+    private static int reportFailure(int failures, String name, Throwable e) {
+        if (failures < MAX_REPORTED_FAILURES) {
+            System.err.println("couldn't load " + name + ": " + e);
+        }
+        return failures + 1;
+    }
+
+    private static long scan(List<Class<?>> types) {
+        long methods = 0;
+        for (Class<?> type : types) {
+            methods += type.getDeclaredMethods().length;
+        }
+        return methods;
+    }
+
+    private static long metaspaceUsed() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            // includes the compressed class space, which is also its own pool
+            if (pool.getName().equals("Metaspace")) {
+                return pool.getUsage().getUsed();
+            }
+        }
+        return 0;
+    }
+
+    private RuntimeCostChild() {
+        throw new AssertionError();
+    }
+
+}
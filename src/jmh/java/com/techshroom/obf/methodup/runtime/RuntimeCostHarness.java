@@ -0,0 +1,262 @@
+package com.techshroom.obf.methodup.runtime;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.techshroom.obf.methodup.Main;
+
+import joptsimple.ArgumentAcceptingOptionSpec;
+import joptsimple.NonOptionArgumentSpec;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+
+/**
+ * Measures what the decoys cost an application at runtime. Obfuscates a jar
+ * with {@link Main}, then loads the original and the obfuscated jar in fresh
+ * JVMs, alternating between the two, and reports the median of each of:
+ * 
+ * <ul>
+ * <li>the wall time of the whole JVM, start to exit</li>
+ * <li>loading every class, without initializing it</li>
+ * <li>linking every class, and the part of that spent verifying, which is
+ * the difference to runs with verification turned off</li>
+ * <li>the metaspace taken by the classes</li>
+ * <li>the first {@code getDeclaredMethods()} over every class, which builds
+ * the reflection data, and later scans, which copy it</li>
+ * </ul>
+ * 
+ * <p>
+ * The first argument is the jar, everything after {@code --} is passed to
+ * {@code Main}, for example
+ * {@code --runs 10 --classpath lib/dep.jar app.jar -- --threads 4}. Exits
+ * with status 1 if a run fails, or if fewer obfuscated classes than original
+ * ones could be loaded.
+ * </p>
+ * 
+ * @author Kenzie Togami
+ */
+public final class RuntimeCostHarness {
+
+    private static final OptionParser PARSER = new OptionParser();
+
+    private static final ArgumentAcceptingOptionSpec<Integer> RUNS = PARSER
+            .accepts("runs", "JVMs to start for each jar and verifier mode")
+            .withRequiredArg().ofType(Integer.class).defaultsTo(5);
+    private static final ArgumentAcceptingOptionSpec<Integer> WARM_SCANS =
+            PARSER.accepts("warm-scans",
+                           "reflection scans to average after the first")
+                    .withRequiredArg().ofType(Integer.class).defaultsTo(20);
+    private static final ArgumentAcceptingOptionSpec<String> CLASS_PATH =
+            PARSER.accepts("classpath",
+                           "dependencies of the jar, use system path "
+                                   + "seperator").withRequiredArg()
+                    .defaultsTo("");
+    private static final ArgumentAcceptingOptionSpec<String> WORK_DIR = PARSER
+            .accepts("work-dir", "where the obfuscated jar and results go")
+            .withRequiredArg()
+            .defaultsTo(Paths.get(System.getProperty("java.io.tmpdir"),
+                                  "methodup-runtime").toString());
+    private static final NonOptionArgumentSpec<String> ARGS = PARSER
+            .nonOptions("the jar, then arguments for Main after --");
+
+    /**
+     * What is reported, read from the results of each run.
+     */
+    private enum Metric {
+        WALL("JVM wall time, ms", null, 1000),
+        LOAD("load, ms", RuntimeCostChild.LOAD_MICROS, 1000),
+        LINK("link, ms", RuntimeCostChild.LINK_MICROS, 1000),
+        VERIFY("  of which verify, ms", null, 1000),
+        METASPACE("metaspace, KiB", RuntimeCostChild.METASPACE, 1024),
+        COLD_SCAN("first reflection scan, ms",
+                RuntimeCostChild.COLD_SCAN_MICROS, 1000),
+        WARM_SCAN("later reflection scans, ms",
+                RuntimeCostChild.WARM_SCAN_MICROS, 1000),
+        METHODS("declared methods", RuntimeCostChild.METHODS, 1);
+
+        private final String label;
+        // null if the harness works it out itself
+        private final String property;
+        private final double unit;
+
+        Metric(String label, String property, double unit) {
+            this.label = label;
+            this.property = property;
+            this.unit = unit;
+        }
+
+    }
+
+    /**
+     * Runs the harness.
+     * 
+     * @param args
+     *            - Arguments
+     * @throws Exception
+     *             if the harness itself fails
+     */
+    public static void main(String[] args) throws Exception {
+        OptionSet opts = PARSER.parse(args);
+        List<String> nonOptions = ARGS.values(opts);
+        checkArgument(!nonOptions.isEmpty(), "no jar given");
+        int runs = RUNS.value(opts);
+        int warmScans = WARM_SCANS.value(opts);
+        checkArgument(runs > 0, "need at least one run, got %s", runs);
+        checkArgument(warmScans > 0, "need at least one warm scan, got %s",
+                      warmScans);
+        Path original = Paths.get(nonOptions.get(0));
+        String classPath = CLASS_PATH.value(opts);
+        Path workDir = Files.createDirectories(Paths.get(WORK_DIR.value(opts)));
+        Path obfuscated = workDir.resolve("obfuscated.jar");
+        Path results = workDir.resolve("results.properties");
+
+        List<String> transform = javaCommand();
+        transform.add(Main.class.getName());
+        transform.add(original.toString());
+        transform.add(obfuscated.toString());
+        if (!classPath.isEmpty()) {
+            transform.add("--classpath");
+            transform.add(classPath);
+        }
+        transform.addAll(nonOptions.subList(1, nonOptions.size()));
+        Files.deleteIfExists(obfuscated);
+        System.err.println("obfuscating " + original);
+        int status =
+                new ProcessBuilder(transform).inheritIO().start().waitFor();
+        if (status != 0) {
+            fail("transform exited with status " + status);
+        }
+
+        ListMultimap<Metric, Long> before = ArrayListMultimap.create();
+        ListMultimap<Metric, Long> after = ArrayListMultimap.create();
+        int[] classes = new int[2];
+        for (int i = 0; i < runs; i++) {
+            System.err.println("run " + (i + 1) + " of " + runs);
+            // alternating, so drift on the machine hits both alike
+            classes[0] =
+                    measure(original, classPath, warmScans, results, before);
+            classes[1] =
+                    measure(obfuscated, classPath, warmScans, results, after);
+        }
+
+        System.err.println(String.format(Locale.ROOT, "%-28s %12s %12s %12s",
+                                         "", "original", "obfuscated",
+                                         "change"));
+        for (Metric metric : Metric.values()) {
+            double originalValue = median(before.get(metric)) / metric.unit;
+            double obfuscatedValue = median(after.get(metric)) / metric.unit;
+            System.err.println(String.format(Locale.ROOT,
+                    "%-28s %12.1f %12.1f %+11.1f%%", metric.label,
+                    originalValue, obfuscatedValue,
+                    originalValue == 0 ? 0.0 : (obfuscatedValue
+                            / originalValue - 1) * 100));
+        }
+        System.err.println(classes[0] + " classes loaded from the original, "
+                + classes[1] + " from the obfuscated jar");
+        if (classes[1] < classes[0]) {
+            fail("obfuscated classes failed to load or verify");
+        }
+    }
+
+    private static List<String> javaCommand() {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java")
+                .toString());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        return command;
+    }
+
+    /**
+     * Loads a jar twice in fresh JVMs, with and without verification, and
+     * adds the results to the given metrics.
+     * 
+     * @return The number of classes loaded
+     */
+    private static int measure(Path jar, String classPath, int warmScans,
+            Path results, ListMultimap<Metric, Long> metrics)
+            throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        Properties verified =
+                runChild(jar, classPath, warmScans, results, true);
+        long wallNanos = System.nanoTime() - start;
+        Properties unverified =
+                runChild(jar, classPath, warmScans, results, false);
+        for (Metric metric : Metric.values()) {
+            if (metric.property != null) {
+                metrics.put(metric, Long.parseLong(verified
+                        .getProperty(metric.property)));
+            }
+        }
+        metrics.put(Metric.WALL, TimeUnit.NANOSECONDS.toMicros(wallNanos));
+        long linkMicros =
+                Long.parseLong(verified
+                        .getProperty(RuntimeCostChild.LINK_MICROS));
+        long unverifiedLinkMicros =
+                Long.parseLong(unverified
+                        .getProperty(RuntimeCostChild.LINK_MICROS));
+        metrics.put(Metric.VERIFY,
+                    Math.max(linkMicros - unverifiedLinkMicros, 0));
+        return Integer.parseInt(verified.getProperty(RuntimeCostChild.CLASSES));
+    }
+
+    private static Properties runChild(Path jar, String classPath,
+            int warmScans, Path results, boolean verify) throws IOException,
+            InterruptedException {
+        Files.deleteIfExists(results);
+        List<String> command = javaCommand();
+        if (!verify) {
+            // what the JDK verifies is left as is, like in a real
+            // application; newer JDKs made the flag a diagnostic one
+            command.add(1, "-XX:+UnlockDiagnosticVMOptions");
+            command.add(2, "-XX:-BytecodeVerificationRemote");
+        }
+        command.add(RuntimeCostChild.class.getName());
+        command.add(results.toString());
+        command.add(jar.toString());
+        command.add(classPath);
+        command.add(Integer.toString(warmScans));
+        int status = new ProcessBuilder(command).inheritIO().start().waitFor();
+        if (status != 0 || !Files.exists(results)) {
+            fail("loading " + jar + " exited with status " + status);
+        }
+        Properties stats = new Properties();
+        try (Reader reader =
+                Files.newBufferedReader(results, StandardCharsets.UTF_8)) {
+            stats.load(reader);
+        }
+        return stats;
+    }
+
+    private static double median(List<Long> values) {
+        List<Long> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        int middle = sorted.size() / 2;
+        return sorted.size() % 2 == 1 ? sorted.get(middle)
+                : (sorted.get(middle - 1) + sorted.get(middle)) / 2.0;
+    }
+
+    private static void fail(String message) {
+        System.err.println("FAILED: " + message);
+        System.exit(1);
+    }
+
+    private RuntimeCostHarness() {
+        throw new AssertionError();
+    }
+
+}
@@ -0,0 +1,77 @@
+package com.techshroom.obf.methodup.scale;
+
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import com.techshroom.obf.methodup.Main;
+
+/**
+ * The child JVM of {@link ScaleHarness}. Runs {@link Main} once, then writes
+ * what it measured to a properties file.
+ * 
+ * @author Kenzie Togami
+ */
+final class ScaleChild {
+
+    static final String PEAK_HEAP = "peakHeap";
+    static final String GC_MILLIS = "gcMillis";
+    static final String GC_COUNT = "gcCount";
+    static final String WALL_MILLIS = "wallMillis";
+
+    /**
+     * @param args
+     *            - The results file, then the arguments for {@link Main}
+     * @throws Exception
+     *             if the results can't be written
+     */
+    public static void main(String[] args) throws Exception {
+        Path results = Paths.get(args[0]);
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+        long start = System.nanoTime();
+        // exits the JVM itself if the transform fails
+        Main.main(Arrays.copyOfRange(args, 1, args.length));
+        long wallNanos = System.nanoTime() - start;
+
+        // pools peak at different times, so the sum is an upper bound
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peakHeap += pool.getPeakUsage().getUsed();
+            }
+        }
+        long gcMillis = 0;
+        long gcCount = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory
+                .getGarbageCollectorMXBeans()) {
+            gcMillis += Math.max(gc.getCollectionTime(), 0);
+            gcCount += Math.max(gc.getCollectionCount(), 0);
+        }
+        Properties stats = new Properties();
+        stats.setProperty(PEAK_HEAP, Long.toString(peakHeap));
+        stats.setProperty(GC_MILLIS, Long.toString(gcMillis));
+        stats.setProperty(GC_COUNT, Long.toString(gcCount));
+        stats.setProperty(WALL_MILLIS,
+                          Long.toString(TimeUnit.NANOSECONDS.toMillis(wallNanos)));
+        try (Writer writer =
+                Files.newBufferedWriter(results, StandardCharsets.UTF_8)) {
+            stats.store(writer, null);
+        }
+    }
+
+    private ScaleChild() {
+        throw new AssertionError();
+    }
+
+}
@@ -0,0 +1,145 @@
+package com.techshroom.obf.methodup.scale;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+import joptsimple.ArgumentAcceptingOptionSpec;
+import joptsimple.NonOptionArgumentSpec;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+
+/**
+ * Runs {@link com.techshroom.obf.methodup.Main} over a {@link SyntheticJar}
+ * in a child JVM with a fixed heap, and checks the peak heap, GC time and
+ * throughput against budgets. Exits with status 1 if the run fails or a
+ * budget is exceeded.
+ * 
+ * <p>
+ * Everything after {@code --} is passed to {@code Main}, for example
+ * {@code --classes 200000 --xmx 1g --max-heap 900 -- --threads 4}.
+ * </p>
+ * 
+ * @author Kenzie Togami
+ */
+public final class ScaleHarness {
+
+    private static final OptionParser PARSER = new OptionParser();
+
+    private static final ArgumentAcceptingOptionSpec<Integer> CLASSES = PARSER
+            .accepts("classes", "number of classes to generate")
+            .withRequiredArg().ofType(Integer.class).defaultsTo(50000);
+    private static final ArgumentAcceptingOptionSpec<Integer> METHODS = PARSER
+            .accepts("methods", "number of methods in each class")
+            .withRequiredArg().ofType(Integer.class).defaultsTo(10);
+    private static final ArgumentAcceptingOptionSpec<Integer> METHOD_SIZE =
+            PARSER.accepts("method-size", "instructions in each method")
+                    .withRequiredArg().ofType(Integer.class).defaultsTo(20);
+    private static final ArgumentAcceptingOptionSpec<String> XMX = PARSER
+            .accepts("xmx", "maximum heap of the transforming JVM")
+            .withRequiredArg().defaultsTo("1g");
+    private static final ArgumentAcceptingOptionSpec<String> WORK_DIR = PARSER
+            .accepts("work-dir", "where generated jars are kept between runs")
+            .withRequiredArg()
+            .defaultsTo(Paths.get(System.getProperty("java.io.tmpdir"),
+                                  "methodup-scale").toString());
+    private static final ArgumentAcceptingOptionSpec<Long> MAX_HEAP = PARSER
+            .accepts("max-heap", "peak heap budget, in MiB").withRequiredArg()
+            .ofType(Long.class);
+    private static final ArgumentAcceptingOptionSpec<Long> MAX_GC = PARSER
+            .accepts("max-gc", "GC time budget, in milliseconds")
+            .withRequiredArg().ofType(Long.class);
+    private static final ArgumentAcceptingOptionSpec<Double> MIN_THROUGHPUT =
+            PARSER.accepts("min-throughput",
+                           "throughput budget, in classes per second")
+                    .withRequiredArg().ofType(Double.class);
+    private static final NonOptionArgumentSpec<String> MAIN_ARGS = PARSER
+            .nonOptions("arguments for Main, after --");
+
+    /**
+     * Runs the harness.
+     * 
+     * @param args
+     *            - Arguments
+     * @throws Exception
+     *             if the harness itself fails
+     */
+    public static void main(String[] args) throws Exception {
+        OptionSet opts = PARSER.parse(args);
+        int classes = CLASSES.value(opts);
+        SyntheticJar generator =
+                new SyntheticJar(classes, METHODS.value(opts),
+                        METHOD_SIZE.value(opts));
+        Path workDir = Files.createDirectories(Paths.get(WORK_DIR.value(opts)));
+        Path input = workDir.resolve(generator.getFileName());
+        Path output = workDir.resolve("out.jar");
+        Path results = workDir.resolve("results.properties");
+        System.err.println("generating " + input);
+        generator.writeIfMissing(input);
+        Files.deleteIfExists(output);
+        Files.deleteIfExists(results);
+
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java")
+                .toString());
+        command.add("-Xmx" + XMX.value(opts));
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ScaleChild.class.getName());
+        command.add(results.toString());
+        command.add(input.toString());
+        command.add(output.toString());
+        command.addAll(MAIN_ARGS.values(opts));
+        int status = new ProcessBuilder(command).inheritIO().start().waitFor();
+        if (status != 0 || !Files.exists(results)) {
+            System.err.println("FAILED: transform exited with status "
+                    + status);
+            System.exit(1);
+        }
+
+        Properties stats = new Properties();
+        try (Reader reader =
+                Files.newBufferedReader(results, StandardCharsets.UTF_8)) {
+            stats.load(reader);
+        }
+        long peakHeap = Long.parseLong(stats.getProperty(ScaleChild.PEAK_HEAP));
+        long gcMillis = Long.parseLong(stats.getProperty(ScaleChild.GC_MILLIS));
+        long wallMillis =
+                Long.parseLong(stats.getProperty(ScaleChild.WALL_MILLIS));
+        double throughput = classes * 1000.0 / Math.max(wallMillis, 1);
+        System.err.println(String.format(Locale.ROOT,
+                "%d classes, %d ms wall, %.0f classes/s, peak heap %d MiB, "
+                        + "GC %d ms in %s collections", classes, wallMillis,
+                throughput, peakHeap >> 20, gcMillis,
+                stats.getProperty(ScaleChild.GC_COUNT)));
+
+        List<String> exceeded = new ArrayList<>();
+        if (opts.has(MAX_HEAP) && peakHeap >> 20 > MAX_HEAP.value(opts)) {
+            exceeded.add("peak heap over " + MAX_HEAP.value(opts) + " MiB");
+        }
+        if (opts.has(MAX_GC) && gcMillis > MAX_GC.value(opts)) {
+            exceeded.add("GC time over " + MAX_GC.value(opts) + " ms");
+        }
+        if (opts.has(MIN_THROUGHPUT)
+                && throughput < MIN_THROUGHPUT.value(opts)) {
+            exceeded.add("throughput under " + MIN_THROUGHPUT.value(opts)
+                    + " classes/s");
+        }
+        if (!exceeded.isEmpty()) {
+            System.err.println("FAILED: " + String.join(", ", exceeded));
+            System.exit(1);
+        }
+    }
+
+    private ScaleHarness() {
+        throw new AssertionError();
+    }
+
+}
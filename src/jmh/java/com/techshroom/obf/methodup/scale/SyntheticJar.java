@@ -0,0 +1,165 @@
+package com.techshroom.obf.methodup.scale;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Generates large jars of synthetic classes. Classes come in inheritance
+ * chains, and every method merges its own type with its super type, so frame
+ * computation has to ask the hierarchy about classes in the jar.
+ * 
+ * @author Kenzie Togami
+ */
+final class SyntheticJar {
+
+    private static final String OBJECT = "java/lang/Object";
+    private static final int CLASSES_PER_PACKAGE = 500;
+    private static final int CHAIN_LENGTH = 8;
+    // keeps methods well under the 64K code limit
+    private static final int MAX_METHOD_SIZE = 40000;
+
+    private final int classes;
+    private final int methods;
+    private final int methodSize;
+
+    /**
+     * @param classes
+     *            - The number of classes in the jar
+     * @param methods
+     *            - The number of methods in each class
+     * @param methodSize
+     *            - Roughly how many instructions each method has
+     */
+    SyntheticJar(int classes, int methods, int methodSize) {
+        checkArgument(classes > 0, "need at least one class, got %s", classes);
+        checkArgument(methods >= 0, "negative method count %s", methods);
+        checkArgument(methodSize >= 0 && methodSize <= MAX_METHOD_SIZE,
+                      "method size %s not in [0, %s]", methodSize,
+                      MAX_METHOD_SIZE);
+        this.classes = classes;
+        this.methods = methods;
+        this.methodSize = methodSize;
+    }
+
+    /**
+     * @return A file name that is unique to the generator's parameters
+     */
+    String getFileName() {
+        return "synthetic-" + this.classes + "-" + this.methods + "-"
+                + this.methodSize + ".jar";
+    }
+
+    /**
+     * Writes the jar, unless it is already there.
+     * 
+     * @param jar
+     *            - Where to write the jar
+     * @throws IOException
+     *             if the jar can't be written
+     */
+    void writeIfMissing(Path jar) throws IOException {
+        if (Files.exists(jar)) {
+            return;
+        }
+        Path temp = Files.createTempFile(jar.getParent(), "synthetic", ".tmp");
+        try {
+            try (JarOutputStream out =
+                    new JarOutputStream(Files.newOutputStream(temp))) {
+                // one class in memory at a time, the jar may be huge
+                for (int i = 0; i < this.classes; i++) {
+                    out.putNextEntry(new JarEntry(className(i) + ".class"));
+                    out.write(generate(i));
+                    out.closeEntry();
+                }
+            }
+            Files.move(temp, jar, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static String className(int index) {
+        return "synthetic/p" + (index / CLASSES_PER_PACKAGE) + "/C" + index;
+    }
+
+    private static String superName(int index) {
+        // chains never cross a package boundary
+        return index % CHAIN_LENGTH == 0 ? OBJECT : className(index - 1);
+    }
+
+    private byte[] generate(int index) {
+        String name = className(index);
+        String superName = superName(index);
+        // the frames are written by hand, so no hierarchy is needed here
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER,
+                     name, null, superName, null);
+        MethodVisitor init =
+                writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null,
+                                   null);
+        init.visitCode();
+        init.visitVarInsn(Opcodes.ALOAD, 0);
+        init.visitMethodInsn(Opcodes.INVOKESPECIAL, superName, "<init>",
+                             "()V", false);
+        init.visitInsn(Opcodes.RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+        for (int i = 0; i < this.methods; i++) {
+            method(writer, superName, i);
+        }
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    // int m(int a) { S s = a > 0 ? this : new S(); a += 0; ...;
+    // return s.hashCode() + a; }
+    private void method(ClassWriter writer, String superName, int index) {
+        MethodVisitor mv =
+                writer.visitMethod(Opcodes.ACC_PUBLIC, "m" + index, "(I)I",
+                                   null, null);
+        mv.visitCode();
+        Label other = new Label();
+        Label join = new Label();
+        mv.visitVarInsn(Opcodes.ILOAD, 1);
+        mv.visitJumpInsn(Opcodes.IFLE, other);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitJumpInsn(Opcodes.GOTO, join);
+        mv.visitLabel(other);
+        mv.visitFrame(Opcodes.F_SAME, 0, null, 0, null);
+        mv.visitTypeInsn(Opcodes.NEW, superName);
+        mv.visitInsn(Opcodes.DUP);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, superName, "<init>", "()V",
+                           false);
+        mv.visitLabel(join);
+        mv.visitFrame(Opcodes.F_SAME1, 0, null, 1,
+                      new Object[] { superName });
+        mv.visitVarInsn(Opcodes.ASTORE, 2);
+        // each iteration is four instructions
+        for (int i = 0; i < this.methodSize / 4; i++) {
+            mv.visitVarInsn(Opcodes.ILOAD, 1);
+            mv.visitIntInsn(Opcodes.SIPUSH, i);
+            mv.visitInsn(Opcodes.IADD);
+            mv.visitVarInsn(Opcodes.ISTORE, 1);
+        }
+        mv.visitVarInsn(Opcodes.ALOAD, 2);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, OBJECT, "hashCode", "()I",
+                           false);
+        mv.visitVarInsn(Opcodes.ILOAD, 1);
+        mv.visitInsn(Opcodes.IADD);
+        mv.visitInsn(Opcodes.IRETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+}
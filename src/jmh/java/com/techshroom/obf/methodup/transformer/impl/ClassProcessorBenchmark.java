@@ -0,0 +1,89 @@
+package com.techshroom.obf.methodup.transformer.impl;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.ImmutableList;
+import com.techshroom.obf.methodup.transformer.FrameMode;
+import com.techshroom.obf.methodup.transformer.TransformerConfig;
+import com.techshroom.obf.methodup.transformer.impl.SampleClasses.Shape;
+
+/**
+ * Transforms single classes of different shapes. {@link #copy()} is the
+ * same read and write without the decoy pass, so the difference between the
+ * two is what the decoys cost.
+ * 
+ * @author Kenzie Togami
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassProcessorBenchmark {
+
+    private static final String NAME = "bench/Sample";
+
+    @Param({ "MANY_SMALL_METHODS", "ONE_HUGE_METHOD", "LAMBDAS" })
+    public Shape shape;
+
+    @Param({ "COMPUTE", "PRESERVE" })
+    public FrameMode frameMode;
+
+    private byte[] classFile;
+    private ClassHierarchy classPath;
+    private ClassHierarchy hierarchy;
+    private ClassProcessor processor;
+
+    @Setup
+    public void setUp() {
+        this.classFile = SampleClasses.generate(NAME, this.shape);
+        this.classPath = ClassHierarchy.ofClassPath(ImmutableList.of(), null);
+        this.hierarchy =
+                this.classPath.withSource(SampleClasses.source(NAME,
+                                                               this.classFile));
+        this.processor =
+                new ClassProcessor(TransformerConfig.builder()
+                        .frameMode(this.frameMode).build(), this.hierarchy,
+                        null);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        this.hierarchy.close();
+        this.classPath.close();
+    }
+
+    @Benchmark
+    public byte[] transform() {
+        return this.processor.process(this.classFile, NAME);
+    }
+
+    @Benchmark
+    public byte[] copy() {
+        ClassReader reader = new ClassReader(this.classFile);
+        ClassWriter writer =
+                this.frameMode == FrameMode.PRESERVE ? new HierarchyClassWriter(
+                        reader, 0, this.hierarchy) : new HierarchyClassWriter(
+                        ClassWriter.COMPUTE_FRAMES, this.hierarchy);
+        reader.accept(writer, 0);
+        return writer.toByteArray();
+    }
+
+}
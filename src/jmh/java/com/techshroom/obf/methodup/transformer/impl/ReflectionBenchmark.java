@@ -0,0 +1,118 @@
+package com.techshroom.obf.methodup.transformer.impl;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.ImmutableList;
+import com.techshroom.obf.methodup.transformer.TransformerConfig;
+import com.techshroom.obf.methodup.transformer.impl.SampleClasses.Shape;
+
+/**
+ * The reflective paths frameworks use to scan classes, on a class as
+ * generated and the same class with decoys. {@link #defineAndScan()} is what
+ * the first scan of a freshly loaded class costs, including linking it; the
+ * others run on a class whose reflection data is already built.
+ * 
+ * @author Kenzie Togami
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReflectionBenchmark {
+
+    private static final String NAME = "bench/Sample";
+
+    /**
+     * Defines a single class, a new loader is needed for each definition.
+     */
+    private static final class SingleClassLoader extends ClassLoader {
+
+        SingleClassLoader() {
+            super(ReflectionBenchmark.class.getClassLoader());
+        }
+
+        Class<?> define(byte[] classFile) {
+            return defineClass(NAME.replace('/', '.'), classFile, 0,
+                               classFile.length);
+        }
+
+    }
+
+    @Param({ "MANY_SMALL_METHODS", "ONE_HUGE_METHOD", "LAMBDAS" })
+    public Shape shape;
+
+    @Param({ "false", "true" })
+    public boolean decoys;
+
+    private byte[] classFile;
+    private Class<?> loaded;
+    private String methodName;
+    private Class<?>[] parameterTypes;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] generated = SampleClasses.generate(NAME, this.shape);
+        this.classFile = generated;
+        if (this.decoys) {
+            try (ClassHierarchy classPath =
+                    ClassHierarchy.ofClassPath(ImmutableList.of(), null);
+                    ClassHierarchy hierarchy =
+                            classPath.withSource(SampleClasses
+                                    .source(NAME, generated))) {
+                this.classFile =
+                        new ClassProcessor(TransformerConfig.builder()
+                                .build(), hierarchy, null).process(generated,
+                                                                   NAME);
+            }
+        }
+        this.loaded = new SingleClassLoader().define(this.classFile);
+        // look up a method the class had before any decoys were added
+        Method first =
+                new SingleClassLoader().define(generated)
+                        .getDeclaredMethods()[0];
+        this.methodName = first.getName();
+        this.parameterTypes = first.getParameterTypes();
+        // builds the reflection data, as after a framework's first scan
+        this.loaded.getDeclaredMethods();
+    }
+
+    @Benchmark
+    public Method[] defineAndScan() {
+        return new SingleClassLoader().define(this.classFile)
+                .getDeclaredMethods();
+    }
+
+    @Benchmark
+    public Method[] declaredMethods() {
+        return this.loaded.getDeclaredMethods();
+    }
+
+    @Benchmark
+    public Method[] methods() {
+        return this.loaded.getMethods();
+    }
+
+    @Benchmark
+    public Method declaredMethod() throws NoSuchMethodException {
+        // a decoy has the same name and parameters, so this has to pick
+        return this.loaded.getDeclaredMethod(this.methodName,
+                                             this.parameterTypes);
+    }
+
+}
@@ -0,0 +1,189 @@
+package com.techshroom.obf.methodup.transformer.impl;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * Generates classes of a few typical shapes for the benchmarks. Public, as
+ * is {@link Shape}, because the harness JMH generates for a {@code @Param}
+ * of that type lives in another package.
+ * 
+ * @author Kenzie Togami
+ */
+public final class SampleClasses {
+
+    /**
+     * The kinds of class to generate.
+     */
+    public enum Shape {
+        /**
+         * Hundreds of short methods with a branch each.
+         */
+        MANY_SMALL_METHODS,
+        /**
+         * A single method close to the code size limit, full of branches.
+         */
+        ONE_HUGE_METHOD,
+        /**
+         * Many methods that each return a lambda.
+         */
+        LAMBDAS;
+    }
+
+    private static final int SMALL_METHODS = 500;
+    private static final int HUGE_METHOD_BLOCKS = 2000;
+    private static final int LAMBDAS = 200;
+    private static final Handle METAFACTORY = new Handle(Opcodes.H_INVOKESTATIC,
+            Type.getInternalName(LambdaMetafactory.class), "metafactory",
+            MethodType.methodType(CallSite.class, MethodHandles.Lookup.class,
+                                  String.class, MethodType.class,
+                                  MethodType.class, MethodHandle.class,
+                                  MethodType.class).toMethodDescriptorString(),
+            false);
+
+    /**
+     * Generates a class.
+     * 
+     * @param name
+     *            - The internal name of the class
+     * @param shape
+     *            - What the class should look like
+     * @return The class file
+     */
+    static byte[] generate(String name, Shape shape) {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER,
+                     name, null, "java/lang/Object", null);
+        MethodVisitor init =
+                writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null,
+                                   null);
+        init.visitCode();
+        init.visitVarInsn(Opcodes.ALOAD, 0);
+        init.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object",
+                             "<init>", "()V", false);
+        init.visitInsn(Opcodes.RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+        switch (shape) {
+            case MANY_SMALL_METHODS:
+                for (int i = 0; i < SMALL_METHODS; i++) {
+                    smallMethod(writer, i);
+                }
+                break;
+            case ONE_HUGE_METHOD:
+                hugeMethod(writer);
+                break;
+            case LAMBDAS:
+                for (int i = 0; i < LAMBDAS; i++) {
+                    lambdaMethod(writer, name, i);
+                }
+                break;
+            default:
+                throw new AssertionError(shape);
+        }
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    // int mN(int x) { return x > N ? x : N; }
+    private static void smallMethod(ClassWriter writer, int index) {
+        MethodVisitor method =
+                writer.visitMethod(Opcodes.ACC_PUBLIC, "m" + index, "(I)I",
+                                   null, null);
+        method.visitCode();
+        Label otherwise = new Label();
+        method.visitVarInsn(Opcodes.ILOAD, 1);
+        method.visitIntInsn(Opcodes.SIPUSH, index);
+        method.visitJumpInsn(Opcodes.IF_ICMPLE, otherwise);
+        method.visitVarInsn(Opcodes.ILOAD, 1);
+        method.visitInsn(Opcodes.IRETURN);
+        method.visitLabel(otherwise);
+        method.visitIntInsn(Opcodes.SIPUSH, index);
+        method.visitInsn(Opcodes.IRETURN);
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+    }
+
+    // static int huge(int a) { if (a > 0) a -= 0; else a += 0; ... }
+    private static void hugeMethod(ClassWriter writer) {
+        MethodVisitor method =
+                writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC,
+                                   "huge", "(I)I", null, null);
+        method.visitCode();
+        for (int i = 0; i < HUGE_METHOD_BLOCKS; i++) {
+            Label otherwise = new Label();
+            Label next = new Label();
+            method.visitVarInsn(Opcodes.ILOAD, 0);
+            method.visitIntInsn(Opcodes.SIPUSH, i);
+            method.visitJumpInsn(Opcodes.IF_ICMPLE, otherwise);
+            method.visitIincInsn(0, -(i % 100));
+            method.visitJumpInsn(Opcodes.GOTO, next);
+            method.visitLabel(otherwise);
+            method.visitIincInsn(0, i % 100);
+            method.visitLabel(next);
+        }
+        method.visitVarInsn(Opcodes.ILOAD, 0);
+        method.visitInsn(Opcodes.IRETURN);
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+    }
+
+    // IntUnaryOperator fN() { return x -> x * N; }
+    private static void lambdaMethod(ClassWriter writer, String owner,
+            int index) {
+        String body = "lambda$f" + index + "$0";
+        MethodVisitor method =
+                writer.visitMethod(Opcodes.ACC_PUBLIC, "f" + index,
+                                   "()Ljava/util/function/IntUnaryOperator;",
+                                   null, null);
+        method.visitCode();
+        method.visitInvokeDynamicInsn("applyAsInt",
+                                      "()Ljava/util/function/IntUnaryOperator;",
+                                      METAFACTORY, Type.getType("(I)I"),
+                                      new Handle(Opcodes.H_INVOKESTATIC,
+                                              owner, body, "(I)I", false),
+                                      Type.getType("(I)I"));
+        method.visitInsn(Opcodes.ARETURN);
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+        MethodVisitor lambda =
+                writer.visitMethod(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC
+                        | Opcodes.ACC_SYNTHETIC, body, "(I)I", null, null);
+        lambda.visitCode();
+        lambda.visitVarInsn(Opcodes.ILOAD, 0);
+        lambda.visitIntInsn(Opcodes.SIPUSH, index);
+        lambda.visitInsn(Opcodes.IMUL);
+        lambda.visitInsn(Opcodes.IRETURN);
+        lambda.visitMaxs(0, 0);
+        lambda.visitEnd();
+    }
+
+    /**
+     * A source that serves a single generated class, so frames can be
+     * computed for it.
+     * 
+     * @param name
+     *            - The internal name of the class
+     * @param classFile
+     *            - The class file
+     * @return A source for the class
+     */
+    static ClassSource source(String name, byte[] classFile) {
+        return internalName -> name.equals(internalName) ? classFile : null;
+    }
+
+    private SampleClasses() {
+        throw new AssertionError();
+    }
+
+}
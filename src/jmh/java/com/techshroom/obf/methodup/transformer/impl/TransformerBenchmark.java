@@ -0,0 +1,97 @@
+package com.techshroom.obf.methodup.transformer.impl;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.techshroom.obf.methodup.transformer.TransformerConfig;
+import com.techshroom.obf.methodup.transformer.impl.SampleClasses.Shape;
+import com.techshroom.obf.methodup.util.DestructionVisitor;
+
+/**
+ * Transforms a whole jar, and the same classes as a directory, end to end.
+ * 
+ * @author Kenzie Togami
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TransformerBenchmark {
+
+    @Param({ "300" })
+    public int classes;
+
+    @Param({ "1", "4" })
+    public int threads;
+
+    private Path temp;
+    private Path inputJar;
+    private Path outputJar;
+    private Path inputDirectory;
+    private Path outputDirectory;
+    private TransformerConfig config;
+
+    @Setup
+    public void setUp() throws IOException {
+        this.temp = Files.createTempDirectory("methodup-bench");
+        this.inputJar = this.temp.resolve("in.jar");
+        this.outputJar = this.temp.resolve("out.jar");
+        this.inputDirectory =
+                Files.createDirectories(this.temp.resolve("in"));
+        this.outputDirectory =
+                Files.createDirectories(this.temp.resolve("out"));
+        Shape[] shapes = Shape.values();
+        try (JarOutputStream jar =
+                new JarOutputStream(Files.newOutputStream(this.inputJar))) {
+            for (int i = 0; i < this.classes; i++) {
+                String name = "bench/Sample" + i;
+                byte[] classFile =
+                        SampleClasses.generate(name, shapes[i % shapes.length]);
+                jar.putNextEntry(new JarEntry(name + ".class"));
+                jar.write(classFile);
+                jar.closeEntry();
+                Path file = this.inputDirectory.resolve(name + ".class");
+                Files.createDirectories(file.getParent());
+                Files.write(file, classFile);
+            }
+        }
+        this.config = TransformerConfig.builder().threads(this.threads).build();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.walkFileTree(this.temp, new DestructionVisitor());
+    }
+
+    @Benchmark
+    public void jar() {
+        new JarTransformer(this.inputJar, this.outputJar, this.config)
+                .transform();
+    }
+
+    @Benchmark
+    public void directory() {
+        new DirectoryTransformer(this.inputDirectory, this.outputDirectory,
+                this.config).transform();
+    }
+
+}
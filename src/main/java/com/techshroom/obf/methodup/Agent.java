@@ -0,0 +1,149 @@
+package com.techshroom.obf.methodup;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.instrument.Instrumentation;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Map;
+
+import com.google.common.base.Splitter;
+import com.google.common.io.ByteStreams;
+import com.techshroom.obf.methodup.transformer.ClassTransformer;
+import com.techshroom.obf.methodup.transformer.DecoyMode;
+import com.techshroom.obf.methodup.transformer.FrameMode;
+import com.techshroom.obf.methodup.transformer.TransformerConfig;
+
+/**
+ * Entry point of the {@code java.lang.instrument} agent, which adds the
+ * decoys to classes as they are loaded. Use it with
+ * {@code -javaagent:methodup.jar[=options]}, where the options are a comma
+ * separated list of:
+ * 
+ * <ul>
+ * <li>{@code cache=<dir>} - also keep transformed classes on disk</li>
+ * <li>{@code cache-size=<MiB>} - size limit of the disk cache</li>
+ * <li>{@code memo-size=<MiB>} - size limit of the in-memory results, 64 by
+ * default</li>
+ * <li>{@code report=<file>} - write a JSON report when the JVM exits</li>
+ * <li>{@code decoys=lean} - write the smallest decoys, see
+ * {@link DecoyMode#LEAN}</li>
+ * <li>{@code max-class-growth=<bytes>} - how much the decoys may add to a
+ * class</li>
+ * <li>{@code include=<globs>} and {@code exclude=<globs>} - which classes to
+ * transform, {@code ;} separated, see
+ * {@link com.techshroom.obf.methodup.transformer.ClassFilter ClassFilter}</li>
+ * </ul>
+ * 
+ * <p>
+ * Frames are always {@link FrameMode#PRESERVE preserved}. Computing them
+ * would need the class hierarchy, which can't be looked at safely from inside
+ * class loading.
+ * </p>
+ * 
+ * @author Kenzie Togami
+ */
+public final class Agent {
+
+    private static final long DEFAULT_MEMO_SIZE = 64L * 1024 * 1024;
+    private static final Splitter GLOBS = Splitter.on(';').omitEmptyStrings()
+            .trimResults();
+
+    /**
+     * Installs the agent before {@code main}.
+     * 
+     * @param args
+     *            - The agent options, may be {@code null}
+     * @param instrumentation
+     *            - The instrumentation to install into
+     */
+    public static void premain(String args, Instrumentation instrumentation) {
+        install(args, instrumentation);
+    }
+
+    /**
+     * Installs the agent into a running JVM. Classes loaded before are left
+     * alone.
+     * 
+     * @param args
+     *            - The agent options, may be {@code null}
+     * @param instrumentation
+     *            - The instrumentation to install into
+     */
+    public static void agentmain(String args, Instrumentation instrumentation) {
+        install(args, instrumentation);
+    }
+
+    private static void install(String args, Instrumentation instrumentation) {
+        TransformerConfig.Builder config =
+                TransformerConfig.builder().frameMode(FrameMode.PRESERVE);
+        long memoSize = DEFAULT_MEMO_SIZE;
+        Map<String, String> options =
+                Splitter.on(',').omitEmptyStrings().trimResults()
+                        .withKeyValueSeparator('=')
+                        .split(args == null ? "" : args);
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            String value = option.getValue();
+            switch (option.getKey()) {
+                case "cache":
+                    config.cacheDirectory(Paths.get(value));
+                    break;
+                case "cache-size":
+                    config.maxCacheSize(Long.parseLong(value) << 20);
+                    break;
+                case "memo-size":
+                    memoSize = Long.parseLong(value) << 20;
+                    checkArgument(memoSize > 0,
+                                  "memo size must be positive, got %s", value);
+                    break;
+                case "report":
+                    config.reportFile(Paths.get(value));
+                    break;
+                case "decoys":
+                    config.decoyMode(DecoyMode.valueOf(value
+                            .toUpperCase(Locale.ROOT)));
+                    break;
+                case "max-class-growth":
+                    config.maxClassGrowth(Long.parseLong(value));
+                    break;
+                case "include":
+                    GLOBS.split(value).forEach(config::include);
+                    break;
+                case "exclude":
+                    GLOBS.split(value).forEach(config::exclude);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown agent option "
+                            + option.getKey());
+            }
+        }
+        TransformerConfig built = config.build();
+        ClassTransformer transformer =
+                Main.getTransformerProvider().getClassTransformer(built);
+        // writes the report and trims the disk cache
+        Runtime.getRuntime().addShutdownHook(new Thread(transformer::close,
+                "methodup-agent-shutdown"));
+        AgentTransformer agent = new AgentTransformer(transformer,
+                built.getClassFilter(), memoSize);
+        // load everything a transform touches now, while it's still safe
+        agent.transform(readOwnClass());
+        instrumentation.addTransformer(agent);
+    }
+
+    private static byte[] readOwnClass() {
+        try (InputStream stream =
+                Agent.class.getResourceAsStream("Agent.class")) {
+            return ByteStreams.toByteArray(stream);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Agent() {
+        throw new AssertionError();
+    }
+
+}
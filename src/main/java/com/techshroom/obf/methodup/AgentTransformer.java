@@ -0,0 +1,113 @@
+package com.techshroom.obf.methodup;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.security.ProtectionDomain;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.techshroom.obf.methodup.transformer.ClassFilter;
+import com.techshroom.obf.methodup.transformer.ClassTransformer;
+
+/**
+ * Adds the decoys to classes as they are loaded. Results are memoized in
+ * memory by a hash of the class bytes, so a class loaded again by another
+ * loader costs a hash and a lookup.
+ * 
+ * <p>
+ * The JDK, the obfuscator and its libraries are never transformed, the
+ * transformer would otherwise be loading the classes it is transforming.
+ * Classes loaded while a transform is running on the same thread are skipped
+ * for the same reason.
+ * </p>
+ * 
+ * @author Kenzie Togami
+ */
+final class AgentTransformer implements ClassFileTransformer {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final ImmutableList<String> SKIPPED_PACKAGES = ImmutableList
+            .of("java/", "javax/", "jdk/", "sun/", "com/sun/",
+                "com/techshroom/obf/methodup/", "org/objectweb/asm/",
+                "com/google/", "org/apache/logging/", "joptsimple/",
+                "org/aopalliance/");
+
+    private final ClassTransformer transformer;
+    private final ClassFilter filter;
+    private final Cache<HashCode, byte[]> memo;
+    private final ThreadLocal<Boolean> transforming = ThreadLocal
+            .withInitial(() -> Boolean.FALSE);
+
+    /**
+     * @param transformer
+     *            - The transformer to run, preserving frames
+     * @param filter
+     *            - The classes to transform
+     * @param memoSize
+     *            - How many bytes of transformed classes to keep in memory
+     */
+    AgentTransformer(ClassTransformer transformer, ClassFilter filter,
+            long memoSize) {
+        this.transformer = checkNotNull(transformer);
+        this.filter = checkNotNull(filter);
+        this.memo =
+                CacheBuilder.newBuilder().maximumWeight(memoSize)
+                        .weigher((HashCode k, byte[] v) -> v.length).build();
+    }
+
+    /**
+     * Transforms a class, without going through the JVM. Used to load
+     * everything a transform needs before the agent is installed.
+     * 
+     * @param classFile
+     *            - The class file
+     * @return The transformed class file
+     */
+    byte[] transform(byte[] classFile) {
+        HashCode hash = Hashing.sha256().hashBytes(classFile);
+        byte[] transformed = this.memo.getIfPresent(hash);
+        if (transformed == null) {
+            transformed = this.transformer.transform(classFile);
+            this.memo.put(hash, transformed);
+        }
+        return transformed;
+    }
+
+    @Override
+    public byte[] transform(ClassLoader loader, String className,
+            Class<?> classBeingRedefined, ProtectionDomain protectionDomain,
+            byte[] classfileBuffer) {
+        if (loader == null || className == null || isSkipped(className)
+                || !this.filter.accepts(className) || this.transforming.get()) {
+            return null;
+        }
+        this.transforming.set(Boolean.TRUE);
+        try {
+            return transform(classfileBuffer);
+        } catch (RuntimeException e) {
+            // the JVM drops exceptions silently, at least say something
+            LOGGER.warn("failed to transform " + className
+                    + ", loading it unchanged", e);
+            return null;
+        } finally {
+            this.transforming.set(Boolean.FALSE);
+        }
+    }
+
+    private static boolean isSkipped(String className) {
+        for (String prefix : SKIPPED_PACKAGES) {
+            if (className.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
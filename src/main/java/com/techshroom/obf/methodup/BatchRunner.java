@@ -0,0 +1,157 @@
+package com.techshroom.obf.methodup;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.techshroom.obf.methodup.transformer.TransformerBatch;
+import com.techshroom.obf.methodup.transformer.TransformerConfig;
+import com.techshroom.obf.methodup.util.Pools;
+
+/**
+ * Runs every job of a manifest in this process, sharing one
+ * {@link TransformerBatch}. Several jobs run at once, the classes of all of
+ * them go through the same worker pool.
+ * 
+ * <p>
+ * The manifest has a job per line: the input, the output and optionally the
+ * job's own classpath entries, separated by whitespace. Paths are relative
+ * to the manifest's directory, and can't contain whitespace. Blank lines and
+ * lines starting with {@code #} are skipped.
+ * </p>
+ * 
+ * @author Kenzie Togami
+ */
+final class BatchRunner {
+
+    private static final Splitter FIELDS = Splitter.on(CharMatcher.whitespace())
+            .omitEmptyStrings();
+    private static final Splitter CLASS_PATH = Splitter.on(
+            File.pathSeparatorChar).omitEmptyStrings();
+
+    private static final class Job {
+
+        private final Path input;
+        private final Path output;
+        private final ImmutableList<Path> classPath;
+
+        Job(Path input, Path output, List<Path> classPath) {
+            this.input = input;
+            this.output = output;
+            this.classPath = ImmutableList.copyOf(classPath);
+        }
+
+    }
+
+    private final TransformerConfig config;
+    private final int parallelJobs;
+
+    /**
+     * @param config
+     *            - The configuration every job shares, its classpath is
+     *            shared too
+     * @param parallelJobs
+     *            - How many jobs run at once
+     */
+    BatchRunner(TransformerConfig config, int parallelJobs) {
+        checkArgument(parallelJobs > 0,
+                      "parallel jobs must be positive, got %s", parallelJobs);
+        this.config = config;
+        this.parallelJobs = parallelJobs;
+    }
+
+    /**
+     * Runs the jobs of a manifest. A failed job doesn't stop the others.
+     * 
+     * @param manifest
+     *            - The manifest file
+     * @throws IOException
+     *             if the manifest can't be read
+     * @throws IllegalStateException
+     *             if any job failed, with every failure suppressed
+     */
+    void run(Path manifest) throws IOException {
+        List<Job> jobs = parse(manifest);
+        Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        int threads = Math.max(1, Math.min(this.parallelJobs, jobs.size()));
+        ExecutorService runners = Executors
+                .newFixedThreadPool(threads, new ThreadFactoryBuilder()
+                        .setDaemon(true).setNameFormat("batch-job-%d").build());
+        try (TransformerBatch batch =
+                Main.getTransformerProvider().openBatch(this.config)) {
+            for (Job job : jobs) {
+                runners.execute(() -> {
+                    try {
+                        Main.transform(batch, job.input, job.output,
+                                       jobConfig(job));
+                    } catch (Exception e) {
+                        failures.add(new IllegalStateException("job "
+                                + job.input + " -> " + job.output
+                                + " failed", e));
+                    }
+                });
+            }
+            Pools.await(runners);
+        }
+        if (!failures.isEmpty()) {
+            IllegalStateException ex =
+                    new IllegalStateException(failures.size() + " of "
+                            + jobs.size() + " job(s) failed");
+            failures.forEach(ex::addSuppressed);
+            throw ex;
+        }
+    }
+
+    private TransformerConfig jobConfig(Job job) {
+        if (job.classPath.isEmpty()) {
+            return this.config;
+        }
+        // looked in before the shared entries
+        return this.config
+                .toBuilder()
+                .classPath(ImmutableList.<Path> builder()
+                        .addAll(job.classPath)
+                        .addAll(this.config.getClassPath()).build()).build();
+    }
+
+    private static List<Job> parse(Path manifest) throws IOException {
+        Path base = manifest.toAbsolutePath().getParent();
+        List<Job> jobs = new ArrayList<>();
+        List<String> lines =
+                Files.readAllLines(manifest, StandardCharsets.UTF_8);
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            List<String> fields = FIELDS.splitToList(line);
+            checkArgument(fields.size() == 2 || fields.size() == 3,
+                          "%s:%s: expected <input> <output> [<classpath>]",
+                          manifest, i + 1);
+            List<Path> classPath = new ArrayList<>();
+            if (fields.size() == 3) {
+                for (String entry : CLASS_PATH.split(fields.get(2))) {
+                    classPath.add(base.resolve(entry));
+                }
+            }
+            jobs.add(new Job(base.resolve(fields.get(0)), base.resolve(fields
+                    .get(1)), classPath));
+        }
+        return jobs;
+    }
+
+}
@@ -0,0 +1,163 @@
+package com.techshroom.obf.methodup;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.common.io.BaseEncoding;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.techshroom.obf.methodup.util.Pools;
+
+/**
+ * Keeps a warm JVM around and runs jobs sent by {@link DaemonClient}. The
+ * daemon listens on an ephemeral loopback port, and writes the port and a
+ * random token to a state file only its owner can read. Every request has to
+ * carry the token.
+ * 
+ * <p>
+ * A request is the token, a command, the client's working directory and the
+ * job arguments, written with {@link DataOutputStream}. The reply is a
+ * success flag and the failure, if there was one.
+ * </p>
+ * 
+ * @author Kenzie Togami
+ */
+final class Daemon {
+
+    static final String RUN = "run";
+    static final String STOP = "stop";
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    /**
+     * @return The state file used when none is given,
+     *         {@code ~/.methodup/daemon}
+     */
+    static Path getDefaultStateFile() {
+        return Paths.get(System.getProperty("user.home"), ".methodup",
+                         "daemon");
+    }
+
+    private final Path stateFile;
+    private final ExecutorService jobs = Executors
+            .newCachedThreadPool(new ThreadFactoryBuilder().setDaemon(true)
+                    .setNameFormat("daemon-job-%d").build());
+    private byte[] token;
+    private ServerSocket server;
+
+    /**
+     * @param stateFile
+     *            - Where to record the port and token
+     */
+    Daemon(Path stateFile) {
+        this.stateFile = stateFile.toAbsolutePath();
+    }
+
+    /**
+     * Serves jobs until a client asks the daemon to stop. Jobs already
+     * running when it does are finished before this returns.
+     * 
+     * @throws IOException
+     *             if the daemon can't start
+     */
+    void run() throws IOException {
+        byte[] token = new byte[32];
+        new SecureRandom().nextBytes(token);
+        this.token = token;
+        // warm the injector before the first job arrives
+        Main.getTransformerProvider();
+        try (ServerSocket server =
+                new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            this.server = server;
+            writeStateFile(server.getLocalPort());
+            LOGGER.info("daemon listening on port {}", server.getLocalPort());
+            while (!server.isClosed()) {
+                Socket client;
+                try {
+                    client = server.accept();
+                } catch (SocketException e) {
+                    // closed by a stop request
+                    break;
+                }
+                this.jobs.execute(() -> serve(client));
+            }
+        } finally {
+            Files.deleteIfExists(this.stateFile);
+            // the job threads are daemons, running jobs have to finish their
+            // outputs and reply to their clients before the JVM may exit
+            Pools.await(this.jobs);
+        }
+    }
+
+    private void writeStateFile(int port) throws IOException {
+        Files.createDirectories(this.stateFile.getParent());
+        Path temp =
+                Files.createTempFile(this.stateFile.getParent(), "daemon",
+                                     ".tmp");
+        if (FileSystems.getDefault().supportedFileAttributeViews()
+                .contains("posix")) {
+            Files.setPosixFilePermissions(temp, PosixFilePermissions
+                    .fromString("rw-------"));
+        }
+        String state =
+                port + "\n" + BaseEncoding.base16().encode(this.token) + "\n";
+        Files.write(temp, state.getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, this.stateFile, StandardCopyOption.ATOMIC_MOVE,
+                   StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void serve(Socket client) {
+        try (Socket socket = client;
+                DataInputStream in =
+                        new DataInputStream(socket.getInputStream());
+                DataOutputStream out =
+                        new DataOutputStream(socket.getOutputStream())) {
+            byte[] token = BaseEncoding.base16().decode(in.readUTF());
+            if (!MessageDigest.isEqual(token, this.token)) {
+                Replies.writeFailure(out, "bad token");
+                return;
+            }
+            String command = in.readUTF();
+            Path workingDirectory = Paths.get(in.readUTF());
+            int argCount = in.readInt();
+            List<String> args = new ArrayList<>(argCount);
+            for (int i = 0; i < argCount; i++) {
+                args.add(in.readUTF());
+            }
+            if (command.equals(STOP)) {
+                Replies.writeSuccess(out);
+                this.server.close();
+                return;
+            }
+            try {
+                Main.run(args, workingDirectory);
+            } catch (Exception e) {
+                Replies.writeFailure(out, e);
+                return;
+            }
+            Replies.writeSuccess(out);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("bad client, it went away or sent garbage", e);
+        }
+    }
+
+}
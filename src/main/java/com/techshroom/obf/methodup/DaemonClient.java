@@ -0,0 +1,95 @@
+package com.techshroom.obf.methodup;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Sends jobs to a running {@link Daemon}.
+ * 
+ * @author Kenzie Togami
+ */
+final class DaemonClient {
+
+    /**
+     * Runs a job on the daemon and waits for it to finish.
+     * 
+     * @param stateFile
+     *            - The daemon's state file
+     * @param workingDirectory
+     *            - The directory relative paths in the job are resolved
+     *            against
+     * @param args
+     *            - The job arguments, as given to {@link Main#main(String...)}
+     * @return {@code true} if the job succeeded, otherwise the failure was
+     *         printed
+     * @throws IOException
+     *             if the daemon can't be reached
+     */
+    static boolean run(Path stateFile, Path workingDirectory,
+            List<String> args) throws IOException {
+        return send(stateFile, Daemon.RUN, workingDirectory, args);
+    }
+
+    /**
+     * Asks the daemon to stop accepting jobs.
+     * 
+     * @param stateFile
+     *            - The daemon's state file
+     * @throws IOException
+     *             if the daemon can't be reached
+     */
+    static void stop(Path stateFile) throws IOException {
+        send(stateFile, Daemon.STOP, stateFile, ImmutableList.of());
+    }
+
+    private static boolean send(Path stateFile, String command,
+            Path workingDirectory, List<String> args) throws IOException {
+        List<String> state;
+        try {
+            state = Files.readAllLines(stateFile, StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            throw new IOException("no daemon running, " + stateFile
+                    + " doesn't exist", e);
+        }
+        if (state.size() < 2) {
+            throw new IOException("bad daemon state file " + stateFile);
+        }
+        int port = Integer.parseInt(state.get(0));
+        try (Socket socket =
+                new Socket(InetAddress.getLoopbackAddress(), port);
+                DataOutputStream out =
+                        new DataOutputStream(socket.getOutputStream());
+                DataInputStream in =
+                        new DataInputStream(socket.getInputStream())) {
+            out.writeUTF(state.get(1));
+            out.writeUTF(command);
+            out.writeUTF(workingDirectory.toAbsolutePath().toString());
+            out.writeInt(args.size());
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+            boolean success = in.readBoolean();
+            String failure = in.readUTF();
+            if (!success) {
+                System.err.print(failure);
+            }
+            return success;
+        }
+    }
+
+    private DaemonClient() {
+        throw new AssertionError();
+    }
+
+}
@@ -1,34 +1,41 @@
 package com.techshroom.obf.methodup;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.List;
-import java.util.Optional;
 import java.util.Scanner;
-import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
-import java.util.jar.JarOutputStream;
+import java.util.stream.Collectors;
 
 import joptsimple.ArgumentAcceptingOptionSpec;
 import joptsimple.NonOptionArgumentSpec;
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
 import joptsimple.ValueConverter;
+import joptsimple.util.EnumConverter;
 
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
-import com.google.common.io.ByteStreams;
 import com.google.inject.Guice;
-import com.google.inject.Injector;
 import com.google.inject.Module;
+import com.techshroom.obf.methodup.transformer.Compression;
+import com.techshroom.obf.methodup.transformer.DecoyMode;
+import com.techshroom.obf.methodup.transformer.FrameMode;
 import com.techshroom.obf.methodup.transformer.Transformer;
+import com.techshroom.obf.methodup.transformer.TransformerConfig;
+import com.techshroom.obf.methodup.transformer.TransformerFactory;
 import com.techshroom.obf.methodup.transformer.TransformerProvider;
-import com.techshroom.obf.methodup.util.ClassPathHack;
 import com.techshroom.obf.methodup.util.DestructionVisitor;
 
 /**
@@ -67,8 +74,106 @@ public class Main {
                         "classpath entries, use system path seperator")
             .withRequiredArg().withValuesSeparatedBy(File.pathSeparatorChar)
             .withValuesConvertedBy(TOPATH);
+    private static final ArgumentAcceptingOptionSpec<Integer> THREADS = PARSER
+            .acceptsAll(ImmutableList.of("t", "threads"),
+                        "number of worker threads to transform with")
+            .withRequiredArg().ofType(Integer.class).defaultsTo(1);
+    private static final OptionSpec<Void> PRESERVE_FRAMES = PARSER.accepts(
+            "preserve-frames",
+            "keep the original stack map frames instead of recomputing them");
+    private static final OptionSpec<Void> LEAN_DECOYS = PARSER.accepts(
+            "lean-decoys",
+            "write the smallest decoys, without throws clauses or deprecation");
+    private static final ArgumentAcceptingOptionSpec<Long> MAX_CLASS_GROWTH =
+            PARSER.accepts("max-class-growth",
+                           "bytes the decoys may add to a single class")
+                    .withRequiredArg().ofType(Long.class);
+
+    private static final ArgumentAcceptingOptionSpec<String> INCLUDE = PARSER
+            .accepts("include",
+                     "only transform classes matching this glob, "
+                             + "e.g. com.example.**")
+            .withRequiredArg();
+    private static final ArgumentAcceptingOptionSpec<String> EXCLUDE = PARSER
+            .accepts("exclude",
+                     "copy classes matching this glob without transforming")
+            .withRequiredArg();
+
+    private static final ArgumentAcceptingOptionSpec<Path> CACHE = PARSER
+            .accepts("cache", "directory to cache transformed classes in")
+            .withRequiredArg().withValuesConvertedBy(TOPATH);
+    private static final ArgumentAcceptingOptionSpec<Long> CACHE_SIZE = PARSER
+            .accepts("cache-size", "size limit of the class cache, in MiB")
+            .withRequiredArg().ofType(Long.class)
+            .defaultsTo(TransformerConfig.DEFAULT_MAX_CACHE_SIZE >> 20);
+
+    private static final ArgumentAcceptingOptionSpec<Long> MAX_IN_FLIGHT =
+            PARSER.accepts("max-in-flight",
+                           "memory for classes read but not yet written, in MiB")
+                    .withRequiredArg()
+                    .ofType(Long.class)
+                    .defaultsTo(TransformerConfig.DEFAULT_MAX_IN_FLIGHT_BYTES
+                                        >> 20);
+
+    private static final ArgumentAcceptingOptionSpec<Compression> COMPRESSION =
+            PARSER.accepts("compression",
+                           "how new jar entries are compressed, "
+                                   + "store, deflate or smallest")
+                    .withRequiredArg()
+                    .withValuesConvertedBy(new EnumConverter<Compression>(
+                            Compression.class) {
+                    }).defaultsTo(Compression.DEFLATE);
+    private static final ArgumentAcceptingOptionSpec<Integer> COMPRESSION_LEVEL =
+            PARSER.accepts("compression-level",
+                           "deflate level of new jar entries, 0 to 9")
+                    .withRequiredArg()
+                    .ofType(Integer.class)
+                    .defaultsTo(TransformerConfig.DEFAULT_COMPRESSION_LEVEL);
+
+    private static final ArgumentAcceptingOptionSpec<Path> REPORT = PARSER
+            .accepts("report", "file to write a JSON report of the run to")
+            .withRequiredArg().withValuesConvertedBy(TOPATH);
+    private static final OptionSpec<Void> WATCH = PARSER.accepts("watch",
+            "keep running and transform classes again when they change");
+
+    private static final OptionSpec<Void> DAEMON = PARSER.accepts("daemon",
+            "keep running and accept jobs from --remote clients");
+    private static final OptionSpec<Void> REMOTE = PARSER.accepts("remote",
+            "send this job to a running daemon");
+    private static final OptionSpec<Void> STOP_DAEMON = PARSER.accepts(
+            "stop-daemon", "stop a running daemon");
+    private static final ArgumentAcceptingOptionSpec<Path> DAEMON_FILE =
+            PARSER.accepts("daemon-file",
+                           "where the daemon records its port and token")
+                    .withRequiredArg().withValuesConvertedBy(TOPATH);
+
+    private static final ArgumentAcceptingOptionSpec<Path> BATCH = PARSER
+            .accepts("batch",
+                     "run every job of this manifest, one "
+                             + "<input> <output> [<classpath>] per line")
+            .withRequiredArg().withValuesConvertedBy(TOPATH);
+    private static final ArgumentAcceptingOptionSpec<Integer> BATCH_JOBS =
+            PARSER.accepts("batch-jobs", "how many batch jobs run at once")
+                    .withRequiredArg().ofType(Integer.class).defaultsTo(4);
+
+    private static final ArgumentAcceptingOptionSpec<Integer> SHARDS = PARSER
+            .accepts("shards",
+                     "split the job across this many worker JVMs")
+            .withRequiredArg().ofType(Integer.class);
+    private static final ArgumentAcceptingOptionSpec<Integer> SHARD_RETRIES =
+            PARSER.accepts("shard-retries",
+                           "how many times a failed shard is tried again")
+                    .withRequiredArg().ofType(Integer.class).defaultsTo(2);
+    private static final ArgumentAcceptingOptionSpec<Long> SHARD_HEAP = PARSER
+            .accepts("shard-heap", "maximum heap of each worker JVM, in MiB")
+            .withRequiredArg().ofType(Long.class);
+    private static final OptionSpec<Void> SHARD_WORKER = PARSER.accepts(
+            "shard-worker", "serve shards of a --shards job, used internally");
 
     private static final Module mainModule = new MainModule();
+    private static final Supplier<TransformerProvider> PROVIDER = Suppliers
+            .memoize(() -> Guice.createInjector(mainModule).getInstance(
+                    TransformerProvider.class));
 
     /**
      * Starts the obfuscator.
@@ -77,8 +182,51 @@ public class Main {
      *            - Arguments
      */
     public static void main(String... args) {
+        try {
+            run(args);
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs the obfuscator like {@link #main(String...)}, but throws instead
+     * of exiting when it fails.
+     * 
+     * @param args
+     *            - Arguments
+     * @throws Exception
+     *             if the job fails
+     */
+    public static void run(String... args) throws Exception {
         OptionSet opts = PARSER.parse(args);
-        addClassPathEntries(CLASSPATH.values(opts));
+        Path stateFile =
+                opts.has(DAEMON_FILE) ? DAEMON_FILE.value(opts) : Daemon
+                        .getDefaultStateFile();
+        if (opts.has(SHARD_WORKER)) {
+            ShardWorker.run();
+            return;
+        }
+        if (opts.has(DAEMON)) {
+            new Daemon(stateFile).run();
+            return;
+        }
+        if (opts.has(STOP_DAEMON)) {
+            DaemonClient.stop(stateFile);
+            return;
+        }
+        if (opts.has(BATCH) && !opts.has(REMOTE)) {
+            runBatch(opts, Paths.get(""));
+            return;
+        }
+        if (opts.has(REMOTE)) {
+            // the daemon parses the same arguments itself
+            checkState(DaemonClient.run(stateFile, Paths.get("")
+                    .toAbsolutePath(), ImmutableList.copyOf(args)),
+                       "the daemon failed to run the job");
+            return;
+        }
         List<Path> files = FILES.values(opts);
         if (files.size() != 2) {
             if (files.size() != 0) {
@@ -93,34 +241,127 @@ public class Main {
         }
         Path input = files.get(0);
         Path output = files.get(1);
+        if (opts.has(WATCH)) {
+            if (!Files.isDirectory(input)
+                    || output.toString().endsWith(".jar")) {
+                System.err.println("--watch needs an input and output directory.");
+                return;
+            }
+            Files.createDirectories(output);
+            getTransformerProvider().getDirectoryWatcher(input, output,
+                                                         getConfig(opts,
+                                                                   Paths.get("")))
+                    .transform();
+            return;
+        }
+        run(opts, ImmutableList.copyOf(args), input, output, Paths.get(""));
+    }
+
+    /**
+     * Parses a job, as sent to a {@link Daemon}.
+     * 
+     * @param args
+     *            - The arguments, as given to {@link #main(String...)}
+     * @return The parsed options
+     */
+    static OptionSet parse(List<String> args) {
+        return PARSER.parse(args.toArray(new String[args.size()]));
+    }
+
+    /**
+     * Runs a single transformation job, or a batch of them.
+     * 
+     * @param args
+     *            - The arguments, as given to {@link #main(String...)}
+     * @param workingDirectory
+     *            - The directory relative paths are resolved against
+     * @throws Exception
+     *             if the job fails
+     */
+    static void run(List<String> args, Path workingDirectory)
+            throws Exception {
+        OptionSet opts = parse(args);
+        if (opts.has(BATCH)) {
+            runBatch(opts, workingDirectory);
+            return;
+        }
+        List<Path> files = FILES.values(opts);
+        checkArgument(files.size() == 2, "Must provide 2 arguments.");
+        checkArgument(!opts.has(WATCH), "--watch can't be used with a daemon");
+        run(opts, args, files.get(0), files.get(1), workingDirectory);
+    }
+
+    private static void run(OptionSet opts, List<String> args, Path input,
+            Path output, Path workingDirectory) throws Exception {
+        TransformerConfig config = getConfig(opts, workingDirectory);
+        input = workingDirectory.resolve(input);
+        output = workingDirectory.resolve(output);
+        if (opts.has(SHARDS)) {
+            // the workers parse the same arguments themselves
+            new ShardCoordinator(workingDirectory, args, SHARDS.value(opts),
+                    SHARD_RETRIES.value(opts), SHARD_HEAP.value(opts))
+                    .transform(input, output);
+        } else {
+            transform(getTransformerProvider(), input, output, config);
+        }
+    }
+
+    private static void runBatch(OptionSet opts, Path workingDirectory)
+            throws IOException {
+        checkArgument(FILES.values(opts).isEmpty(),
+                      "--batch takes its inputs and outputs from the manifest");
+        checkArgument(!opts.has(WATCH) && !opts.has(SHARDS),
+                      "--batch can't be used with --watch or --shards");
+        new BatchRunner(getConfig(opts, workingDirectory),
+                BATCH_JOBS.value(opts)).run(workingDirectory.resolve(BATCH
+                .value(opts)));
+    }
+
+    /**
+     * Transforms a jar or directory into a jar or directory.
+     * 
+     * @param factory
+     *            - Where the transformers come from
+     * @param input
+     *            - The input jar or directory
+     * @param output
+     *            - The output jar or directory
+     * @param config
+     *            - The transformer configuration
+     * @throws IOException
+     *             if the input can't be unpacked
+     */
+    static void transform(TransformerFactory factory, Path input, Path output,
+            TransformerConfig config) throws IOException {
         if (Files.isDirectory(input)) {
             // scan for classes
-            transformDirectory(input, output, null);
+            transformDirectory(factory, input, output, config);
+        } else if (Files.isRegularFile(input)
+                && output.toString().endsWith(".jar")) {
+            // jar to jar, stream the entries across
+            factory.getJarTransformer(input, output, config).transform();
         } else if (Files.isRegularFile(input)) {
             // jar of classes, unpack and do above
-            try {
-                Path tempDir = Files.createTempDirectory("tsobfin");
-                try (JarFile jar = new JarFile(input.toFile())) {
-                    jar.stream().forEach(e -> {
-                        if (e.isDirectory()) {
-                            return;
-                        }
-                        try {
-                            Path resolvedPath = tempDir.resolve(e.getName());
-                            Files.createDirectories(resolvedPath.getParent());
-                            ByteStreams.copy(jar.getInputStream(e), Files
-                                    .newOutputStream(resolvedPath));
-                        } catch (Exception e1) {
-                            throw Throwables.propagate(e1);
-                        }
-                    });
-                    transformDirectory(tempDir, output, jar);
-                } finally {
-                    Files.walkFileTree(tempDir, new DestructionVisitor());
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-                System.exit(1);
+            Path tempDir = Files.createTempDirectory("tsobfin");
+            try (JarFile jar = new JarFile(input.toFile())) {
+                jar.stream().forEach(e -> {
+                    if (e.isDirectory()) {
+                        return;
+                    }
+                    Path resolvedPath = tempDir.resolve(e.getName());
+                    // streamed, and closed so huge jars don't run out of
+                    // file handles
+                    try (InputStream source = jar.getInputStream(e)) {
+                        Files.createDirectories(resolvedPath.getParent());
+                        Files.copy(source, resolvedPath,
+                                   StandardCopyOption.REPLACE_EXISTING);
+                    } catch (Exception e1) {
+                        throw Throwables.propagate(e1);
+                    }
+                });
+                transformDirectory(factory, tempDir, output, config);
+            } finally {
+                Files.walkFileTree(tempDir, new DestructionVisitor());
             }
         } else {
             // wat
@@ -129,86 +370,68 @@ public class Main {
         }
     }
 
-    private static void addClassPathEntries(List<Path> values) {
-        values.forEach(ClassPathHack::addFile);
+    /**
+     * Builds the configuration of a job.
+     * 
+     * @param opts
+     *            - The parsed arguments
+     * @param workingDirectory
+     *            - The directory relative paths are resolved against
+     * @return The configuration
+     */
+    static TransformerConfig getConfig(OptionSet opts, Path workingDirectory) {
+        FrameMode frameMode =
+                opts.has(PRESERVE_FRAMES) ? FrameMode.PRESERVE
+                                          : FrameMode.COMPUTE;
+        Path cache = CACHE.value(opts);
+        Path report = REPORT.value(opts);
+        TransformerConfig.Builder builder = TransformerConfig.builder();
+        INCLUDE.values(opts).forEach(builder::include);
+        EXCLUDE.values(opts).forEach(builder::exclude);
+        return builder
+                .threads(THREADS.value(opts))
+                .classPath(CLASSPATH.values(opts).stream()
+                                   .map(workingDirectory::resolve)
+                                   .collect(Collectors.toList()))
+                .frameMode(frameMode)
+                .decoyMode(opts.has(LEAN_DECOYS) ? DecoyMode.LEAN
+                                                 : DecoyMode.FULL)
+                .maxClassGrowth(MAX_CLASS_GROWTH.value(opts))
+                .cacheDirectory(cache == null ? null : workingDirectory
+                                        .resolve(cache))
+                .maxCacheSize(CACHE_SIZE.value(opts) << 20)
+                .maxInFlightBytes(MAX_IN_FLIGHT.value(opts) << 20)
+                .compression(COMPRESSION.value(opts))
+                .compressionLevel(COMPRESSION_LEVEL.value(opts))
+                .reportFile(report == null ? null : workingDirectory
+                                    .resolve(report)).build();
     }
 
-    @SuppressWarnings("resource")
-    private static void transformDirectory(Path input, Path output,
-            JarFile jarMetaData) {
-        boolean jarIt = output.toString().endsWith(".jar");
-        Optional<JarFile> inputJar = Optional.ofNullable(jarMetaData);
-        Path outDir;
-        if (jarIt) {
-            try {
-                outDir = Files.createTempDirectory("tsobfout");
-            } catch (IOException e) {
-                throw Throwables.propagate(e);
-            }
-        } else {
-            // we assume it's a directory
-            outDir = output;
+    private static void transformDirectory(TransformerFactory factory,
+            Path input, Path output, TransformerConfig config) {
+        if (output.toString().endsWith(".jar")) {
+            // compressed on the workers, straight into the jar
+            factory.getDirectoryJarTransformer(input, output, config)
+                    .transform();
+            return;
         }
+        // we assume it's a directory
         try {
-            Files.createDirectories(outDir);
+            Files.createDirectories(output);
         } catch (IOException e) {
             throw Throwables.propagate(e);
         }
-        Injector injector = Guice.createInjector(mainModule);
         Transformer transformer =
-                injector.getInstance(TransformerProvider.class)
-                        .getDirectoryTransformer(input, outDir);
+                factory.getDirectoryTransformer(input, output, config);
         transformer.transform();
-        if (jarIt) {
-            try {
-                Files.deleteIfExists(output);
-            } catch (IOException e1) {
-                throw Throwables.propagate(e1);
-            }
-            try (DirectoryStream<Path> stream =
-                    Files.newDirectoryStream(outDir, Files::isRegularFile);
-                    JarOutputStream outputJar =
-                            new JarOutputStream(Files.newOutputStream(output))) {
-                // two paths, one for input jar and one for input directory
-                if (inputJar.isPresent()) {
-                    // iterate by entries
-                    inputJar.get().stream().forEach(e -> {
-                        try {
-                            Path res = outDir.resolve(e.getName());
-                            JarEntry replace = new JarEntry(e);
-                            outputJar.putNextEntry(replace);
-                            InputStream source;
-                            if (Files.exists(res)) {
-                                // only replace existing files
-                                source = Files.newInputStream(res);
-                                // update time
-                                replace.setTime(System.currentTimeMillis());
-                            } else {
-                                // copy non-existent files
-                                source = inputJar.get().getInputStream(e);
-                            }
-                            ByteStreams.copy(source, outputJar);
-                            source.close();
-                            outputJar.closeEntry();
-                        } catch (Exception ex) {
-                            throw Throwables.propagate(ex);
-                        }
-                    });
-                } else {
-                    for (Path p : stream) {
-                        String name = p.relativize(outDir).toString();
-                        JarEntry newEntry = new JarEntry(name);
-                        try (InputStream source = Files.newInputStream(p)) {
-                            outputJar.putNextEntry(newEntry);
-                            ByteStreams.copy(source, outputJar);
-                            outputJar.closeEntry();
-                        }
-                    }
-                }
-            } catch (IOException e) {
-                throw Throwables.propagate(e);
-            }
-        }
+    }
+
+    /**
+     * @return The transformer provider, created once and shared by every job
+     *         this JVM runs
+     */
+    static TransformerProvider getTransformerProvider() {
+        return PROVIDER.get();
     }
 
     private static List<Path> promptForFiles() {
@@ -0,0 +1,71 @@
+package com.techshroom.obf.methodup;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Writes the replies of {@link Daemon} and {@link ShardWorker}: a success
+ * flag and the failure, if there was one, written with
+ * {@link DataOutputStream}.
+ * 
+ * @author Kenzie Togami
+ */
+final class Replies {
+
+    // writeUTF takes at most 64K of encoded text
+    private static final int MAX_FAILURE_LENGTH = 16 * 1024;
+
+    /**
+     * Replies that the request succeeded.
+     * 
+     * @param out
+     *            - Where to write the reply
+     * @throws IOException
+     *             if the reply can't be written
+     */
+    static void writeSuccess(DataOutputStream out) throws IOException {
+        out.writeBoolean(true);
+        out.writeUTF("");
+    }
+
+    /**
+     * Replies that the request failed, with the stack trace of the failure.
+     * 
+     * @param out
+     *            - Where to write the reply
+     * @param failure
+     *            - Why the request failed
+     * @throws IOException
+     *             if the reply can't be written
+     */
+    static void writeFailure(DataOutputStream out, Throwable failure)
+            throws IOException {
+        StringWriter trace = new StringWriter();
+        failure.printStackTrace(new PrintWriter(trace));
+        writeFailure(out, trace.toString());
+    }
+
+    /**
+     * Replies that the request failed.
+     * 
+     * @param out
+     *            - Where to write the reply
+     * @param failure
+     *            - Why the request failed, cut short if it's too long
+     * @throws IOException
+     *             if the reply can't be written
+     */
+    static void writeFailure(DataOutputStream out, String failure)
+            throws IOException {
+        out.writeBoolean(false);
+        out.writeUTF(failure.length() > MAX_FAILURE_LENGTH ? failure
+                .substring(0, MAX_FAILURE_LENGTH) + "..." : failure);
+    }
+
+    private Replies() {
+        throw new AssertionError();
+    }
+
+}
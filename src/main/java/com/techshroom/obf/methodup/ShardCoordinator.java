@@ -0,0 +1,421 @@
+package com.techshroom.obf.methodup;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Closer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.techshroom.obf.methodup.util.DestructionVisitor;
+import com.techshroom.obf.methodup.util.Pools;
+import com.techshroom.obf.methodup.util.RawZipEntry;
+import com.techshroom.obf.methodup.util.RawZipFile;
+import com.techshroom.obf.methodup.util.RawZipWriter;
+
+/**
+ * Splits the classes of an input jar or directory into shards, transforms
+ * them in separate {@link ShardWorker} JVMs and merges the results into the
+ * output {@link Main} would have written. Each worker has its own heap, so
+ * no single JVM has to hold or collect the whole input.
+ * 
+ * <p>
+ * Workers talk to the coordinator over their standard input and output.
+ * There are several shards per worker, handed out as workers finish, so a
+ * slow shard holds up little. A failed shard is retried, on a fresh worker if
+ * the old one died. Shards are written as jars with their final
+ * compression, merging copies their entries without inflating them.
+ * </p>
+ * 
+ * @author Kenzie Togami
+ */
+final class ShardCoordinator {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final int SHARDS_PER_WORKER = 4;
+
+    private static final class Shard {
+
+        private final int id;
+        // entry names, of a directory's other files too
+        private final ImmutableList<String> classes;
+        private final Path output;
+        private int failures;
+
+        Shard(int id, List<String> classes, Path output) {
+            this.id = id;
+            this.classes = ImmutableList.copyOf(classes);
+            this.output = output;
+        }
+
+    }
+
+    /**
+     * A running worker JVM.
+     */
+    private final class WorkerProcess implements AutoCloseable {
+
+        private final Process process;
+        private final DataOutputStream out;
+        private final DataInputStream in;
+
+        WorkerProcess() throws IOException {
+            List<String> command = new ArrayList<>();
+            command.add(Paths.get(System.getProperty("java.home"), "bin",
+                                  "java").toString());
+            if (ShardCoordinator.this.workerHeap != null) {
+                command.add("-Xmx" + ShardCoordinator.this.workerHeap + "m");
+            }
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(Main.class.getName());
+            command.add("--shard-worker");
+            this.process =
+                    new ProcessBuilder(command)
+                            .redirectError(ProcessBuilder.Redirect.INHERIT)
+                            .start();
+            this.out =
+                    new DataOutputStream(new BufferedOutputStream(
+                            this.process.getOutputStream()));
+            this.in =
+                    new DataInputStream(new BufferedInputStream(
+                            this.process.getInputStream()));
+            this.out.writeUTF(ShardCoordinator.this.workingDirectory
+                    .toAbsolutePath().toString());
+            writeStrings(ShardCoordinator.this.args);
+        }
+
+        /**
+         * Transforms a shard.
+         * 
+         * @return {@code null} on success, otherwise the failure
+         * @throws IOException
+         *             if the worker died
+         */
+        String transform(Path input, Shard shard) throws IOException {
+            this.out.writeBoolean(true);
+            this.out.writeUTF(input.toAbsolutePath().toString());
+            this.out.writeUTF(shard.output.toAbsolutePath().toString());
+            writeStrings(shard.classes);
+            this.out.flush();
+            boolean success = this.in.readBoolean();
+            String failure = this.in.readUTF();
+            return success ? null : failure;
+        }
+
+        private void writeStrings(List<String> strings) throws IOException {
+            this.out.writeInt(strings.size());
+            for (String string : strings) {
+                this.out.writeUTF(string);
+            }
+        }
+
+        void kill() {
+            this.process.destroyForcibly();
+        }
+
+        @Override
+        public void close() {
+            try {
+                this.out.writeBoolean(false);
+                this.out.close();
+                if (this.process.waitFor(1, TimeUnit.MINUTES)) {
+                    return;
+                }
+            } catch (IOException e) {
+                // already gone
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            kill();
+        }
+
+    }
+
+    private final Path workingDirectory;
+    private final ImmutableList<String> args;
+    private final int workers;
+    private final int retries;
+    private final Long workerHeap;
+
+    /**
+     * @param workingDirectory
+     *            - The directory relative paths in the job are resolved
+     *            against
+     * @param args
+     *            - The job arguments, as given to {@link Main#main(String...)}
+     * @param workers
+     *            - How many worker JVMs to run
+     * @param retries
+     *            - How many times a failed shard is tried again
+     * @param workerHeap
+     *            - The maximum heap of each worker in MiB, or {@code null}
+     *            for the JVM's default
+     */
+    ShardCoordinator(Path workingDirectory, List<String> args, int workers,
+            int retries, Long workerHeap) {
+        checkArgument(workers > 0, "workers must be positive, got %s",
+                      workers);
+        checkArgument(retries >= 0, "retries must not be negative, got %s",
+                      retries);
+        this.workingDirectory = workingDirectory;
+        this.args = ImmutableList.copyOf(args);
+        this.workers = workers;
+        this.retries = retries;
+        this.workerHeap = workerHeap;
+    }
+
+    /**
+     * Transforms the input into the output.
+     * 
+     * @param input
+     *            - The input jar or directory
+     * @param output
+     *            - The output jar or directory
+     * @throws IOException
+     *             if the input can't be read or the output written
+     */
+    void transform(Path input, Path output) throws IOException {
+        long start = System.nanoTime();
+        boolean fromJar = !Files.isDirectory(input);
+        Map<String, Long> sizes = listEntries(input, fromJar);
+        List<Shard> shards;
+        Path shardDirectory = Files.createTempDirectory("methodup-shards");
+        try {
+            shards =
+                    split(sizes, this.workers * SHARDS_PER_WORKER,
+                          shardDirectory);
+            int retried = runShards(input, shards);
+            merge(input, fromJar, output, shards);
+            LOGGER.info("transformed {} classes in {} shards on {} workers "
+                                + "in {} ms, {} retried",
+                        sizes.keySet().stream()
+                                .filter(name -> name.endsWith(".class"))
+                                .count(),
+                        shards.size(),
+                        Math.min(this.workers, shards.size()),
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+                                - start),
+                        retried);
+        } finally {
+            Files.walkFileTree(shardDirectory, new DestructionVisitor());
+        }
+    }
+
+    // entry names of the shards to their sizes, in output order; the classes
+    // of a jar, whose other entries are copied from it when merging, or
+    // every file of a directory, which the workers compress as configured
+    private static Map<String, Long> listEntries(Path input, boolean fromJar)
+            throws IOException {
+        Map<String, Long> sizes = new LinkedHashMap<>();
+        if (fromJar) {
+            try (RawZipFile jar = new RawZipFile(input)) {
+                for (RawZipEntry entry : jar.entries()) {
+                    if (isClass(entry)) {
+                        sizes.put(entry.getName(), entry.getSize());
+                    }
+                }
+            }
+            return sizes;
+        }
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(input)) {
+            files =
+                    walk.filter(Files::isRegularFile).sorted()
+                            .collect(Collectors.toList());
+        }
+        for (Path file : files) {
+            sizes.put(input.relativize(file).toString()
+                    .replace(File.separatorChar, '/'), Files.size(file));
+        }
+        return sizes;
+    }
+
+    private static boolean isClass(RawZipEntry entry) {
+        return !entry.isDirectory() && entry.getName().endsWith(".class");
+    }
+
+    // contiguous runs of about the same number of bytes, packages stay
+    // together and so do the classes they look each other up in
+    private static List<Shard> split(Map<String, Long> sizes, int count,
+            Path shardDirectory) {
+        long total = sizes.values().stream().mapToLong(Long::longValue).sum();
+        long target = Math.max(1, total / count);
+        List<Shard> shards = new ArrayList<>();
+        List<String> current = new ArrayList<>();
+        long currentSize = 0;
+        for (Map.Entry<String, Long> entry : sizes.entrySet()) {
+            current.add(entry.getKey());
+            currentSize += entry.getValue();
+            if (currentSize >= target) {
+                shards.add(newShard(shards.size(), current, shardDirectory));
+                current.clear();
+                currentSize = 0;
+            }
+        }
+        if (!current.isEmpty()) {
+            shards.add(newShard(shards.size(), current, shardDirectory));
+        }
+        return shards;
+    }
+
+    private static Shard newShard(int id, List<String> classes,
+            Path shardDirectory) {
+        return new Shard(id, classes, shardDirectory.resolve("shard-" + id
+                + ".jar"));
+    }
+
+    private int runShards(Path input, List<Shard> shards) {
+        Queue<Shard> queue = new ConcurrentLinkedQueue<>(shards);
+        Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        AtomicInteger retried = new AtomicInteger();
+        ExecutorService drivers =
+                Executors.newFixedThreadPool(this.workers,
+                                             new ThreadFactoryBuilder()
+                                                     .setDaemon(true)
+                                                     .setNameFormat("shard-driver-%d")
+                                                     .build());
+        for (int i = 0; i < Math.min(this.workers, shards.size()); i++) {
+            drivers.execute(() -> drive(input, queue, failures, retried));
+        }
+        Pools.await(drivers);
+        if (!failures.isEmpty()) {
+            IllegalStateException ex =
+                    new IllegalStateException(failures.size()
+                            + " shard(s) failed to transform");
+            failures.forEach(ex::addSuppressed);
+            throw ex;
+        }
+        return retried.get();
+    }
+
+    // runs shards on one worker JVM until there are none left
+    private void drive(Path input, Queue<Shard> queue,
+            Queue<Throwable> failures, AtomicInteger retried) {
+        WorkerProcess worker = null;
+        try {
+            // a shard this driver gives back is polled again right away, so
+            // retries are never left behind
+            for (Shard shard = queue.poll(); shard != null; shard =
+                    queue.poll()) {
+                Exception failure;
+                try {
+                    if (worker == null) {
+                        worker = new WorkerProcess();
+                    }
+                    String trace = worker.transform(input, shard);
+                    if (trace == null) {
+                        continue;
+                    }
+                    failure =
+                            new IllegalStateException("shard " + shard.id
+                                    + " failed:\n" + trace);
+                } catch (IOException e) {
+                    // the worker died, the next shard gets a fresh one
+                    if (worker != null) {
+                        worker.kill();
+                        worker = null;
+                    }
+                    failure =
+                            new IllegalStateException("worker died on shard "
+                                    + shard.id, e);
+                }
+                shard.failures++;
+                if (shard.failures <= this.retries) {
+                    LOGGER.warn("shard {} failed, retrying", shard.id, failure);
+                    retried.incrementAndGet();
+                    queue.add(shard);
+                } else {
+                    failures.add(failure);
+                }
+            }
+        } finally {
+            if (worker != null) {
+                worker.close();
+            }
+        }
+    }
+
+    private static void merge(Path input, boolean fromJar, Path output,
+            List<Shard> shards) throws IOException {
+        try (Closer closer = Closer.create()) {
+            Map<String, RawZipFile> shardOf = new HashMap<>();
+            Map<String, RawZipEntry> entries = new HashMap<>();
+            for (Shard shard : shards) {
+                RawZipFile zip = closer.register(new RawZipFile(shard.output));
+                for (RawZipEntry entry : zip.entries()) {
+                    shardOf.put(entry.getName(), zip);
+                    entries.put(entry.getName(), entry);
+                }
+            }
+            if (!output.toString().endsWith(".jar")) {
+                for (Map.Entry<String, RawZipEntry> entry : entries
+                        .entrySet()) {
+                    Path target = output.resolve(entry.getKey());
+                    Files.createDirectories(target.getParent());
+                    Files.write(target, shardOf.get(entry.getKey())
+                            .read(entry.getValue()));
+                }
+                // and everything else of a jar, as Main copies it
+                if (fromJar) {
+                    RawZipFile jar = closer.register(new RawZipFile(input));
+                    for (RawZipEntry entry : jar.entries()) {
+                        if (!entry.isDirectory() && !isClass(entry)) {
+                            Path target = output.resolve(entry.getName());
+                            Files.createDirectories(target.getParent());
+                            Files.write(target, jar.read(entry));
+                        }
+                    }
+                }
+                return;
+            }
+            RawZipWriter out =
+                    closer.register(new RawZipWriter(new BufferedOutputStream(
+                            Files.newOutputStream(output))));
+            if (fromJar) {
+                // everything else of the input goes across as it was
+                RawZipFile jar = closer.register(new RawZipFile(input));
+                for (RawZipEntry entry : jar.entries()) {
+                    if (isClass(entry)) {
+                        out.copyRaw(shardOf.get(entry.getName()),
+                                    entries.get(entry.getName()));
+                    } else {
+                        out.copyRaw(jar, entry);
+                    }
+                }
+            } else {
+                // the directory's other files are in the shards too
+                for (Shard shard : shards) {
+                    for (String name : shard.classes) {
+                        out.copyRaw(shardOf.get(name), entries.get(name));
+                    }
+                }
+            }
+        }
+    }
+
+}
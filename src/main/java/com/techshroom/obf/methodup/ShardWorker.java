@@ -0,0 +1,86 @@
+package com.techshroom.obf.methodup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.techshroom.obf.methodup.transformer.TransformerConfig;
+
+/**
+ * The worker JVM side of a {@link ShardCoordinator}. Reads shards from
+ * standard input and transforms them one at a time, until told to stop.
+ * Standard output carries the replies, anything printed goes to standard
+ * error instead.
+ * 
+ * <p>
+ * The coordinator first sends its working directory and the job arguments.
+ * Every shard is then a {@code true}, the input, the shard jar to write and
+ * the entry names of its classes. The reply is a success flag and the
+ * failure, if there was one. A {@code false} ends the worker.
+ * </p>
+ * 
+ * @author Kenzie Togami
+ */
+final class ShardWorker {
+
+    /**
+     * Serves shards until the coordinator is done.
+     * 
+     * @throws IOException
+     *             if the coordinator goes away
+     */
+    static void run() throws IOException {
+        DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(FileDescriptor.out)));
+        // before anything logs, stdout belongs to the protocol now
+        System.setOut(System.err);
+        DataInputStream in =
+                new DataInputStream(new BufferedInputStream(System.in));
+        Path workingDirectory = Paths.get(in.readUTF());
+        List<String> args = readStrings(in);
+        // only the coordinator reports
+        TransformerConfig config =
+                Main.getConfig(Main.parse(args), workingDirectory)
+                        .toBuilder().reportFile(null).build();
+        while (in.readBoolean()) {
+            Path input = Paths.get(in.readUTF());
+            Path output = Paths.get(in.readUTF());
+            List<String> classes = readStrings(in);
+            try {
+                Main.getTransformerProvider()
+                        .getShardTransformer(input, classes, output, config)
+                        .transform();
+            } catch (Exception e) {
+                Replies.writeFailure(out, e);
+                out.flush();
+                continue;
+            }
+            Replies.writeSuccess(out);
+            out.flush();
+        }
+    }
+
+    private static List<String> readStrings(DataInputStream in)
+            throws IOException {
+        int count = in.readInt();
+        List<String> strings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            strings.add(in.readUTF());
+        }
+        return strings;
+    }
+
+    private ShardWorker() {
+        throw new AssertionError();
+    }
+
+}
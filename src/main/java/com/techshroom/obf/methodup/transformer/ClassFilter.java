@@ -0,0 +1,237 @@
+package com.techshroom.obf.methodup.transformer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Decides which classes are transformed, by include and exclude globs over
+ * class names. A class is transformed if it matches an include, or there are
+ * no includes, and matches no exclude. Everything else is copied unchanged.
+ * 
+ * <p>
+ * Globs use {@code .} or {@code /} between packages. {@code *} and {@code ?}
+ * match within one package or class name, {@code **} matches any number of
+ * packages. So {@code com.example.**} is everything under
+ * {@code com.example}, {@code com.example.*} only the classes directly in it,
+ * and {@code com.example.Foo*} also matches the nested classes of
+ * {@code Foo}.
+ * </p>
+ * 
+ * <p>
+ * The globs are compiled into a trie by name segment, so matching a class
+ * costs one walk down its name, however many globs there are.
+ * </p>
+ * 
+ * @author Kenzie Togami
+ */
+public final class ClassFilter {
+
+    private static final ClassFilter ALL = new ClassFilter(ImmutableList.of(),
+            ImmutableList.of());
+
+    /**
+     * @return A filter that transforms every class
+     */
+    public static ClassFilter all() {
+        return ALL;
+    }
+
+    /**
+     * Compiles a filter.
+     * 
+     * @param includes
+     *            - Globs of the classes to transform, empty for all of them
+     * @param excludes
+     *            - Globs of the classes never to transform
+     * @return The filter
+     */
+    public static ClassFilter of(List<String> includes, List<String> excludes) {
+        if (includes.isEmpty() && excludes.isEmpty()) {
+            return ALL;
+        }
+        return new ClassFilter(includes, excludes);
+    }
+
+    private static final class Node {
+
+        private final Map<String, Node> literals = new HashMap<>();
+        // segments with * or ?, tried in order
+        private final List<Pattern> globs = new ArrayList<>();
+        private final List<Node> globChildren = new ArrayList<>();
+        // what follows a ** segment
+        private Node anyDepth;
+        private boolean terminal;
+
+        Node child(String segment) {
+            if (segment.equals("**")) {
+                if (this.anyDepth == null) {
+                    this.anyDepth = new Node();
+                }
+                return this.anyDepth;
+            }
+            if (segment.indexOf('*') < 0 && segment.indexOf('?') < 0) {
+                return this.literals.computeIfAbsent(segment, k -> new Node());
+            }
+            checkArgument(!segment.contains("**"),
+                          "** must be a whole segment, got %s", segment);
+            Pattern glob = compile(segment);
+            for (int i = 0; i < this.globs.size(); i++) {
+                if (this.globs.get(i).pattern().equals(glob.pattern())) {
+                    return this.globChildren.get(i);
+                }
+            }
+            Node child = new Node();
+            this.globs.add(glob);
+            this.globChildren.add(child);
+            return child;
+        }
+
+        boolean matches(String[] segments, int index) {
+            if (index == segments.length && this.terminal) {
+                return true;
+            }
+            if (this.anyDepth != null) {
+                // ** takes zero or more segments
+                for (int i = index; i <= segments.length; i++) {
+                    if (this.anyDepth.matches(segments, i)) {
+                        return true;
+                    }
+                }
+            }
+            if (index == segments.length) {
+                return false;
+            }
+            String segment = segments[index];
+            Node literal = this.literals.get(segment);
+            if (literal != null && literal.matches(segments, index + 1)) {
+                return true;
+            }
+            for (int i = 0; i < this.globs.size(); i++) {
+                if (this.globs.get(i).matcher(segment).matches()
+                        && this.globChildren.get(i).matches(segments,
+                                                            index + 1)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+    }
+
+    private static Pattern compile(String segment) {
+        StringBuilder regex = new StringBuilder();
+        int literalStart = 0;
+        for (int i = 0; i < segment.length(); i++) {
+            char c = segment.charAt(i);
+            if (c == '*' || c == '?') {
+                if (literalStart < i) {
+                    regex.append(Pattern.quote(segment.substring(literalStart,
+                                                                 i)));
+                }
+                regex.append(c == '*' ? ".*" : ".");
+                literalStart = i + 1;
+            }
+        }
+        if (literalStart < segment.length()) {
+            regex.append(Pattern.quote(segment.substring(literalStart)));
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    private static Node compileAll(List<String> globs) {
+        if (globs.isEmpty()) {
+            return null;
+        }
+        Node root = new Node();
+        for (String glob : globs) {
+            String[] segments = split(glob.replace('.', '/'));
+            checkArgument(segments.length > 0, "empty glob %s", glob);
+            Node node = root;
+            for (String segment : segments) {
+                checkArgument(!segment.isEmpty(), "empty segment in glob %s",
+                              glob);
+                node = node.child(segment);
+            }
+            node.terminal = true;
+        }
+        return root;
+    }
+
+    private static String[] split(String name) {
+        List<String> segments = new ArrayList<>();
+        int start = 0;
+        for (int slash = name.indexOf('/'); slash >= 0; slash =
+                name.indexOf('/', start)) {
+            segments.add(name.substring(start, slash));
+            start = slash + 1;
+        }
+        segments.add(name.substring(start));
+        return segments.toArray(new String[segments.size()]);
+    }
+
+    private final ImmutableList<String> includes;
+    private final ImmutableList<String> excludes;
+    private final Node includeTrie;
+    private final Node excludeTrie;
+
+    private ClassFilter(List<String> includes, List<String> excludes) {
+        this.includes = ImmutableList.copyOf(includes);
+        this.excludes = ImmutableList.copyOf(excludes);
+        this.includeTrie = compileAll(this.includes);
+        this.excludeTrie = compileAll(this.excludes);
+    }
+
+    /**
+     * @return The include globs
+     */
+    public ImmutableList<String> getIncludes() {
+        return this.includes;
+    }
+
+    /**
+     * @return The exclude globs
+     */
+    public ImmutableList<String> getExcludes() {
+        return this.excludes;
+    }
+
+    /**
+     * Checks a class.
+     * 
+     * @param internalName
+     *            - The internal name of the class, such as
+     *            {@code com/example/Foo}
+     * @return {@code true} if the class is transformed
+     */
+    public boolean accepts(String internalName) {
+        if (this == ALL) {
+            return true;
+        }
+        String[] segments = split(internalName);
+        return (this.includeTrie == null || this.includeTrie.matches(segments,
+                                                                     0))
+                && (this.excludeTrie == null || !this.excludeTrie
+                        .matches(segments, 0));
+    }
+
+    /**
+     * Checks an entry of a jar or directory.
+     * 
+     * @param path
+     *            - The entry path, {@code /} separated, ending in
+     *            {@code .class}
+     * @return {@code true} if the class is transformed
+     */
+    public boolean acceptsPath(String path) {
+        return accepts(path.endsWith(".class") ? path.substring(0, path
+                .length() - ".class".length()) : path);
+    }
+
+}
@@ -0,0 +1,44 @@
+package com.techshroom.obf.methodup.transformer;
+
+import org.objectweb.asm.ClassVisitor;
+
+/**
+ * A transformation step that runs over every class. All passes of a
+ * {@link TransformerConfig} are chained into one visitor, so each class is
+ * still parsed and written once, however many passes there are. The decoy
+ * methods are added after the last pass.
+ * 
+ * <p>
+ * Passes are shared by every worker, {@link #wrap(ClassVisitor)} may be called
+ * from several threads at once. Each visitor it returns is only used for a
+ * single class.
+ * </p>
+ * 
+ * @author Kenzie Togami
+ */
+@FunctionalInterface
+public interface ClassPass {
+
+    /**
+     * Creates the visitor for one class.
+     * 
+     * @param next
+     *            - The visitor of the following pass, events must be passed on
+     *            to it
+     * @return A visitor that forwards to {@code next}
+     */
+    ClassVisitor wrap(ClassVisitor next);
+
+    /**
+     * Identifies the pass and whatever settings change its output. The class
+     * cache keys on it, so it must change whenever the output of the pass
+     * does. A lambda's class name can change between runs, so with a cache a
+     * pass should be a named class or override this.
+     * 
+     * @return The pass ID, the class name by default
+     */
+    default String getId() {
+        return getClass().getName();
+    }
+
+}
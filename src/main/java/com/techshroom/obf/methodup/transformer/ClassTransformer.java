@@ -0,0 +1,60 @@
+package com.techshroom.obf.methodup.transformer;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * Transforms classes held in memory, without touching the filesystem. Safe to
+ * call from several threads at once. Closing it releases the classpath and
+ * the class cache, and writes the report if one was configured.
+ * 
+ * @author Kenzie Togami
+ */
+public interface ClassTransformer extends Closeable {
+
+    /**
+     * Transforms a single class. Other classes it refers to are looked up on
+     * the configured classpath. A class the
+     * {@link TransformerConfig#getClassFilter() filter} excludes is returned
+     * as is.
+     * 
+     * @param classFile
+     *            - The class file, not modified
+     * @return The transformed class file
+     */
+    byte[] transform(byte[] classFile);
+
+    /**
+     * Transforms a single class, as {@link #transform(byte[])} does. The
+     * remaining bytes of the buffer are the class file, the buffer's position
+     * is left as it was.
+     * 
+     * @param classFile
+     *            - The class file
+     * @return The transformed class file
+     */
+    default byte[] transform(ByteBuffer classFile) {
+        byte[] bytes = new byte[classFile.remaining()];
+        classFile.duplicate().get(bytes);
+        return transform(bytes);
+    }
+
+    /**
+     * Transforms a batch of classes, on the configured number of threads.
+     * Classes in the batch are looked up in the batch before the classpath,
+     * so they may refer to each other. Excluded classes are returned as is.
+     * 
+     * @param classes
+     *            - The class files by internal name, such as
+     *            {@code com/example/Foo}
+     * @return The transformed class files by internal name, in the same order
+     * @throws IllegalStateException
+     *             if any class failed, with every failure suppressed
+     */
+    Map<String, byte[]> transformAll(Map<String, byte[]> classes);
+
+    @Override
+    void close();
+
+}
@@ -0,0 +1,25 @@
+package com.techshroom.obf.methodup.transformer;
+
+/**
+ * How new entries of an output jar are compressed. Entries copied from an
+ * input jar keep their compression.
+ * 
+ * @author Kenzie Togami
+ */
+public enum Compression {
+
+    /**
+     * Store every entry uncompressed. The fastest, and the largest jar.
+     */
+    STORE,
+    /**
+     * Deflate every entry.
+     */
+    DEFLATE,
+    /**
+     * Deflate every entry, but store those that deflating doesn't make
+     * smaller.
+     */
+    SMALLEST;
+
+}
@@ -0,0 +1,24 @@
+package com.techshroom.obf.methodup.transformer;
+
+/**
+ * What the generated decoy methods look like.
+ * 
+ * @author Kenzie Togami
+ */
+public enum DecoyMode {
+
+    /**
+     * Decoys keep the access flags, declared exceptions and deprecation of
+     * their method.
+     */
+    FULL,
+    /**
+     * Decoys keep the access flags of their method, but declare no
+     * exceptions and are never deprecated. Keeps class files, and the
+     * metaspace they are loaded into, as small as the decoys allow. Synthetic
+     * decoys in class files older than Java 5 still get the Synthetic
+     * attribute, it is how those mark them.
+     */
+    LEAN;
+
+}
@@ -0,0 +1,21 @@
+package com.techshroom.obf.methodup.transformer;
+
+/**
+ * How stack map frames are produced for transformed classes.
+ * 
+ * @author Kenzie Togami
+ */
+public enum FrameMode {
+
+    /**
+     * Recompute frames and maximums for every method. Slow on large methods,
+     * but doesn't trust the input frames.
+     */
+    COMPUTE,
+    /**
+     * Keep the frames and maximums of the original methods, which are not
+     * changed by the transform. Only the generated methods get new maximums.
+     */
+    PRESERVE;
+
+}
@@ -0,0 +1,25 @@
+package com.techshroom.obf.methodup.transformer;
+
+import java.io.Closeable;
+
+/**
+ * Runs many jobs in one process, as a build with many modules would. The
+ * transformers of a batch share its worker pool, in-flight budget and class
+ * cache, and the class hierarchy of its classpath, so each lookup is made
+ * once for every job. Their transforms may run on several threads at once.
+ * 
+ * <p>
+ * Each job brings its own configuration. Its threads, cache, budget and
+ * report are the batch's, its classpath entries are looked in before the
+ * batch's. Closing the batch waits for the workers, and writes the report
+ * of all jobs together if one was configured.
+ * </p>
+ * 
+ * @author Kenzie Togami
+ */
+public interface TransformerBatch extends TransformerFactory, Closeable {
+
+    @Override
+    void close();
+
+}
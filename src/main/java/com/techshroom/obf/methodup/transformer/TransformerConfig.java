@@ -0,0 +1,453 @@
+package com.techshroom.obf.methodup.transformer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Options shared by all transformers handed out by a
+ * {@link TransformerProvider}.
+ * 
+ * @author Kenzie Togami
+ */
+public final class TransformerConfig {
+
+    private static final TransformerConfig DEFAULTS = builder().build();
+
+    /**
+     * The default size limit of the class cache, 512 MiB.
+     */
+    public static final long DEFAULT_MAX_CACHE_SIZE = 512L * 1024 * 1024;
+
+    /**
+     * The default in-flight class budget, 64 MiB.
+     */
+    public static final long DEFAULT_MAX_IN_FLIGHT_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * The default deflate level of new jar entries, zlib's default.
+     */
+    public static final int DEFAULT_COMPRESSION_LEVEL = 6;
+
+    /**
+     * @return The default configuration, a single worker thread, no extra
+     *         classpath, {@link FrameMode#COMPUTE computed} frames,
+     *         {@link DecoyMode#FULL full} decoys with no growth limit, no
+     *         class cache, no passes besides the decoys, every class
+     *         transformed and {@link Compression#DEFLATE deflated} jar
+     *         entries
+     */
+    public static TransformerConfig defaults() {
+        return DEFAULTS;
+    }
+
+    /**
+     * @return A new builder, initialized to the defaults
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Builder for {@link TransformerConfig}.
+     */
+    public static final class Builder {
+
+        private int threads = 1;
+        private ImmutableList<Path> classPath = ImmutableList.of();
+        private FrameMode frameMode = FrameMode.COMPUTE;
+        private DecoyMode decoyMode = DecoyMode.FULL;
+        private Long maxClassGrowth;
+        private Path cacheDirectory;
+        private long maxCacheSize = DEFAULT_MAX_CACHE_SIZE;
+        private Path reportFile;
+        private long maxInFlightBytes = DEFAULT_MAX_IN_FLIGHT_BYTES;
+        private Compression compression = Compression.DEFLATE;
+        private int compressionLevel = DEFAULT_COMPRESSION_LEVEL;
+        private final ImmutableList.Builder<ClassPass> passes =
+                ImmutableList.builder();
+        private final ImmutableList.Builder<String> includes =
+                ImmutableList.builder();
+        private final ImmutableList.Builder<String> excludes =
+                ImmutableList.builder();
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the number of worker threads. One worker transforms on the
+         * calling thread.
+         * 
+         * @param threads
+         *            - The worker count, at least 1
+         * @return this
+         */
+        public Builder threads(int threads) {
+            checkArgument(threads > 0, "threads must be positive, got %s",
+                          threads);
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * Sets the classpath used to resolve classes outside the input, for
+         * example when computing stack map frames.
+         * 
+         * @param classPath
+         *            - Directories and archives, searched in order
+         * @return this
+         */
+        public Builder classPath(List<Path> classPath) {
+            this.classPath = ImmutableList.copyOf(classPath);
+            return this;
+        }
+
+        /**
+         * Sets how stack map frames are produced.
+         * 
+         * @param frameMode
+         *            - The frame mode
+         * @return this
+         */
+        public Builder frameMode(FrameMode frameMode) {
+            this.frameMode = checkNotNull(frameMode);
+            return this;
+        }
+
+        /**
+         * Sets what the decoys look like.
+         * 
+         * @param decoyMode
+         *            - The decoy mode
+         * @return this
+         */
+        public Builder decoyMode(DecoyMode decoyMode) {
+            this.decoyMode = checkNotNull(decoyMode);
+            return this;
+        }
+
+        /**
+         * Sets how many bytes the decoys may add to a single class. Decoys
+         * are added in method order until the next one could go over, the
+         * rest of the class's methods get none.
+         * 
+         * @param maxClassGrowth
+         *            - The limit in bytes, or {@code null} for no limit
+         * @return this
+         */
+        public Builder maxClassGrowth(Long maxClassGrowth) {
+            checkArgument(maxClassGrowth == null || maxClassGrowth >= 0,
+                          "class growth must not be negative, got %s",
+                          maxClassGrowth);
+            this.maxClassGrowth = maxClassGrowth;
+            return this;
+        }
+
+        /**
+         * Sets the directory of the on-disk class cache. Transformed classes
+         * are stored there and reused by later runs over the same input.
+         * 
+         * @param cacheDirectory
+         *            - The cache directory, or {@code null} for no cache
+         * @return this
+         */
+        public Builder cacheDirectory(Path cacheDirectory) {
+            this.cacheDirectory = cacheDirectory;
+            return this;
+        }
+
+        /**
+         * Sets the size limit of the class cache. The least recently used
+         * classes are evicted past it.
+         * 
+         * @param maxCacheSize
+         *            - The limit in bytes, at least 1
+         * @return this
+         */
+        public Builder maxCacheSize(long maxCacheSize) {
+            checkArgument(maxCacheSize > 0,
+                          "cache size must be positive, got %s",
+                          maxCacheSize);
+            this.maxCacheSize = maxCacheSize;
+            return this;
+        }
+
+        /**
+         * Sets where to write a JSON report of timings, counts and the
+         * slowest classes once the run is done.
+         * 
+         * @param reportFile
+         *            - The report file, or {@code null} for no report
+         * @return this
+         */
+        public Builder reportFile(Path reportFile) {
+            this.reportFile = reportFile;
+            return this;
+        }
+
+        /**
+         * Sets how many bytes of classes may be in memory at once, read but
+         * not yet written. Reading stops until enough of them are written.
+         * A single class larger than the budget is still transformed, on its
+         * own.
+         * 
+         * @param maxInFlightBytes
+         *            - The budget in bytes, at least 1
+         * @return this
+         */
+        public Builder maxInFlightBytes(long maxInFlightBytes) {
+            checkArgument(maxInFlightBytes > 0,
+                          "in-flight budget must be positive, got %s",
+                          maxInFlightBytes);
+            this.maxInFlightBytes = maxInFlightBytes;
+            return this;
+        }
+
+        /**
+         * Sets how new entries of an output jar are compressed. They are
+         * compressed on the worker threads, and only written in order by a
+         * single thread.
+         * 
+         * @param compression
+         *            - The compression policy
+         * @return this
+         */
+        public Builder compression(Compression compression) {
+            this.compression = checkNotNull(compression);
+            return this;
+        }
+
+        /**
+         * Sets the deflate level of new jar entries, lower is faster and
+         * larger.
+         * 
+         * @param compressionLevel
+         *            - The level, 0 to 9
+         * @return this
+         */
+        public Builder compressionLevel(int compressionLevel) {
+            checkArgument(compressionLevel >= 0 && compressionLevel <= 9,
+                          "compression level must be 0 to 9, got %s",
+                          compressionLevel);
+            this.compressionLevel = compressionLevel;
+            return this;
+        }
+
+        /**
+         * Adds a pass to run over every class. Passes run in the order they
+         * were added, before the decoys are added.
+         * 
+         * @param pass
+         *            - The pass
+         * @return this
+         */
+        public Builder addPass(ClassPass pass) {
+            this.passes.add(pass);
+            return this;
+        }
+
+        /**
+         * Adds passes to run over every class, as if by
+         * {@link #addPass(ClassPass)}.
+         * 
+         * @param passes
+         *            - The passes
+         * @return this
+         */
+        public Builder addPasses(Iterable<? extends ClassPass> passes) {
+            this.passes.addAll(passes);
+            return this;
+        }
+
+        /**
+         * Only transforms the classes matching the given glob, and those of
+         * other includes. See {@link ClassFilter} for the glob syntax.
+         * 
+         * @param glob
+         *            - The classes to transform
+         * @return this
+         */
+        public Builder include(String glob) {
+            this.includes.add(glob);
+            return this;
+        }
+
+        /**
+         * Never transforms the classes matching the given glob, they are
+         * copied without being parsed. See {@link ClassFilter} for the glob
+         * syntax.
+         * 
+         * @param glob
+         *            - The classes to copy unchanged
+         * @return this
+         */
+        public Builder exclude(String glob) {
+            this.excludes.add(glob);
+            return this;
+        }
+
+        /**
+         * @return A new configuration from this builder
+         */
+        public TransformerConfig build() {
+            return new TransformerConfig(this);
+        }
+
+    }
+
+    private final int threads;
+    private final ImmutableList<Path> classPath;
+    private final FrameMode frameMode;
+    private final DecoyMode decoyMode;
+    private final OptionalLong maxClassGrowth;
+    private final Optional<Path> cacheDirectory;
+    private final long maxCacheSize;
+    private final Optional<Path> reportFile;
+    private final long maxInFlightBytes;
+    private final Compression compression;
+    private final int compressionLevel;
+    private final ImmutableList<ClassPass> passes;
+    private final ClassFilter classFilter;
+
+    private TransformerConfig(Builder builder) {
+        this.threads = builder.threads;
+        this.classPath = builder.classPath;
+        this.frameMode = builder.frameMode;
+        this.decoyMode = builder.decoyMode;
+        Long maxClassGrowth = builder.maxClassGrowth;
+        this.maxClassGrowth =
+                maxClassGrowth == null ? OptionalLong.empty() : OptionalLong
+                        .of(maxClassGrowth);
+        this.cacheDirectory = Optional.ofNullable(builder.cacheDirectory);
+        this.maxCacheSize = builder.maxCacheSize;
+        this.reportFile = Optional.ofNullable(builder.reportFile);
+        this.maxInFlightBytes = builder.maxInFlightBytes;
+        this.compression = builder.compression;
+        this.compressionLevel = builder.compressionLevel;
+        this.passes = builder.passes.build();
+        this.classFilter =
+                ClassFilter.of(builder.includes.build(),
+                               builder.excludes.build());
+    }
+
+    /**
+     * @return The number of worker threads
+     */
+    public int getThreads() {
+        return this.threads;
+    }
+
+    /**
+     * @return The classpath used to resolve classes outside the input
+     */
+    public ImmutableList<Path> getClassPath() {
+        return this.classPath;
+    }
+
+    /**
+     * @return How stack map frames are produced
+     */
+    public FrameMode getFrameMode() {
+        return this.frameMode;
+    }
+
+    /**
+     * @return What the decoys look like
+     */
+    public DecoyMode getDecoyMode() {
+        return this.decoyMode;
+    }
+
+    /**
+     * @return How many bytes the decoys may add to a single class, if
+     *         limited
+     */
+    public OptionalLong getMaxClassGrowth() {
+        return this.maxClassGrowth;
+    }
+
+    /**
+     * @return The directory of the class cache, if caching is enabled
+     */
+    public Optional<Path> getCacheDirectory() {
+        return this.cacheDirectory;
+    }
+
+    /**
+     * @return The size limit of the class cache, in bytes
+     */
+    public long getMaxCacheSize() {
+        return this.maxCacheSize;
+    }
+
+    /**
+     * @return Where to write the run report, if one was asked for
+     */
+    public Optional<Path> getReportFile() {
+        return this.reportFile;
+    }
+
+    /**
+     * @return How many bytes of classes may be in memory at once
+     */
+    public long getMaxInFlightBytes() {
+        return this.maxInFlightBytes;
+    }
+
+    /**
+     * @return How new entries of an output jar are compressed
+     */
+    public Compression getCompression() {
+        return this.compression;
+    }
+
+    /**
+     * @return The deflate level of new jar entries
+     */
+    public int getCompressionLevel() {
+        return this.compressionLevel;
+    }
+
+    /**
+     * @return The passes run over every class, in order
+     */
+    public ImmutableList<ClassPass> getPasses() {
+        return this.passes;
+    }
+
+    /**
+     * @return Which classes are transformed
+     */
+    public ClassFilter getClassFilter() {
+        return this.classFilter;
+    }
+
+    /**
+     * @return A builder initialized to this configuration
+     */
+    public Builder toBuilder() {
+        Builder builder =
+                builder().threads(this.threads).classPath(this.classPath)
+                        .frameMode(this.frameMode)
+                        .decoyMode(this.decoyMode)
+                        .maxClassGrowth(this.maxClassGrowth.isPresent()
+                                ? this.maxClassGrowth.getAsLong() : null)
+                        .cacheDirectory(this.cacheDirectory.orElse(null))
+                        .maxCacheSize(this.maxCacheSize)
+                        .reportFile(this.reportFile.orElse(null))
+                        .maxInFlightBytes(this.maxInFlightBytes)
+                        .compression(this.compression)
+                        .compressionLevel(this.compressionLevel)
+                        .addPasses(this.passes);
+        this.classFilter.getIncludes().forEach(builder::include);
+        this.classFilter.getExcludes().forEach(builder::exclude);
+        return builder;
+    }
+
+}
@@ -0,0 +1,58 @@
+package com.techshroom.obf.methodup.transformer;
+
+import java.nio.file.Path;
+
+/**
+ * Creates transformers between directories and jars.
+ * 
+ * @author Kenzie Togami
+ */
+public interface TransformerFactory {
+
+    /**
+     * Creates a new directory transformer for the given input and output.
+     * 
+     * @param input
+     *            - The input directory
+     * @param output
+     *            - The output directory
+     * @param config
+     *            - The transformer configuration
+     * @return A transformer for the given directories
+     */
+    Transformer getDirectoryTransformer(Path input, Path output,
+            TransformerConfig config);
+
+    /**
+     * Creates a new transformer from a directory of classes to a jar. The
+     * classes are transformed and compressed on the worker threads and
+     * written straight to the jar, nothing is staged on disk. Other files
+     * are compressed into the jar as they are.
+     * 
+     * @param input
+     *            - The input directory
+     * @param output
+     *            - The output jar, replaced if it exists
+     * @param config
+     *            - The transformer configuration
+     * @return A transformer from the directory to the jar
+     */
+    Transformer getDirectoryJarTransformer(Path input, Path output,
+            TransformerConfig config);
+
+    /**
+     * Creates a new jar transformer for the given input and output. Entries
+     * are streamed from the input to the output without being extracted.
+     * 
+     * @param input
+     *            - The input jar
+     * @param output
+     *            - The output jar, replaced if it exists
+     * @param config
+     *            - The transformer configuration
+     * @return A transformer for the given jars
+     */
+    Transformer getJarTransformer(Path input, Path output,
+            TransformerConfig config);
+
+}
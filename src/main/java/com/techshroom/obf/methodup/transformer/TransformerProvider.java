@@ -1,16 +1,18 @@
 package com.techshroom.obf.methodup.transformer;
 
 import java.nio.file.Path;
+import java.util.List;
 
 /**
  * A provider for giving out specialized transformers.
  * 
  * @author Kenzie Togami
  */
-public interface TransformerProvider {
+public interface TransformerProvider extends TransformerFactory {
 
     /**
-     * Creates a new directory transformer for the given input and output.
+     * Creates a new directory transformer for the given input and output,
+     * using the {@link TransformerConfig#defaults() default} configuration.
      * 
      * @param input
      *            - The input directory
@@ -18,6 +20,93 @@ public interface TransformerProvider {
      *            - The output directory
      * @return A transformer for the given directories
      */
-    Transformer getDirectoryTransformer(Path input, Path output);
+    default Transformer getDirectoryTransformer(Path input, Path output) {
+        return getDirectoryTransformer(input, output,
+                                       TransformerConfig.defaults());
+    }
+
+    /**
+     * Creates a new directory watcher for the given input and output. Its
+     * {@link Transformer#transform()} transforms the whole directory, then
+     * blocks and transforms classes again as they change, until the calling
+     * thread is interrupted.
+     * 
+     * @param input
+     *            - The input directory
+     * @param output
+     *            - The output directory
+     * @param config
+     *            - The transformer configuration
+     * @return A watching transformer for the given directories
+     */
+    Transformer getDirectoryWatcher(Path input, Path output,
+            TransformerConfig config);
+
+    /**
+     * Creates a new transformer for one shard of a larger input. Only the
+     * given classes are transformed, and only they are written to the
+     * output jar, in the given order. The whole input is still used to
+     * compute frames. Given entries that aren't classes are written as they
+     * are.
+     * 
+     * @param input
+     *            - The input directory or jar
+     * @param classes
+     *            - The entry names of the classes, such as
+     *            {@code com/example/Foo.class}
+     * @param output
+     *            - The output jar, replaced if it exists
+     * @param config
+     *            - The transformer configuration
+     * @return A transformer for the shard
+     */
+    Transformer getShardTransformer(Path input, List<String> classes,
+            Path output, TransformerConfig config);
+
+    /**
+     * Creates a new jar transformer for the given input and output, using the
+     * {@link TransformerConfig#defaults() default} configuration.
+     * 
+     * @param input
+     *            - The input jar
+     * @param output
+     *            - The output jar, replaced if it exists
+     * @return A transformer for the given jars
+     */
+    default Transformer getJarTransformer(Path input, Path output) {
+        return getJarTransformer(input, output, TransformerConfig.defaults());
+    }
+
+    /**
+     * Creates a new in-memory class transformer, using the
+     * {@link TransformerConfig#defaults() default} configuration.
+     * 
+     * @return A transformer for classes held in memory, to be closed after
+     *         use
+     */
+    default ClassTransformer getClassTransformer() {
+        return getClassTransformer(TransformerConfig.defaults());
+    }
+
+    /**
+     * Creates a new in-memory class transformer. It may be shared by several
+     * threads, and is meant to be kept around for many calls.
+     * 
+     * @param config
+     *            - The transformer configuration
+     * @return A transformer for classes held in memory, to be closed after
+     *         use
+     */
+    ClassTransformer getClassTransformer(TransformerConfig config);
+
+    /**
+     * Opens a batch, for running many jobs in one process. See
+     * {@link TransformerBatch}.
+     * 
+     * @param config
+     *            - The configuration every job of the batch shares
+     * @return A new batch, to be closed after its last job
+     */
+    TransformerBatch openBatch(TransformerConfig config);
 
 }
@@ -0,0 +1,78 @@
+package com.techshroom.obf.methodup.transformer.impl;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.techshroom.obf.methodup.transformer.Transformer;
+import com.techshroom.obf.methodup.transformer.TransformerBatch;
+import com.techshroom.obf.methodup.transformer.TransformerConfig;
+import com.techshroom.obf.methodup.transformer.impl.TransformStats.Counter;
+
+/**
+ * The {@link TransformerBatch} implementation, handing its
+ * {@link TransformContext} to every transformer it creates.
+ * 
+ * @author Kenzie Togami
+ */
+final class Batch implements TransformerBatch {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private final TransformerConfig config;
+    private final TransformStats totals = new TransformStats();
+    private final TransformContext context;
+
+    Batch(TransformerConfig config) {
+        this.config = config;
+        this.context = new TransformContext(config, this.totals);
+    }
+
+    private static TransformerConfig jobConfig(TransformerConfig config) {
+        // the batch reports for all of them
+        return config.toBuilder().reportFile(null).build();
+    }
+
+    @Override
+    public Transformer getDirectoryTransformer(Path input, Path output,
+            TransformerConfig config) {
+        return new DirectoryTransformer(input, output, jobConfig(config),
+                this.context);
+    }
+
+    @Override
+    public Transformer getDirectoryJarTransformer(Path input, Path output,
+            TransformerConfig config) {
+        return new ClassJarTransformer(input, null, output, jobConfig(config),
+                this.context);
+    }
+
+    @Override
+    public Transformer getJarTransformer(Path input, Path output,
+            TransformerConfig config) {
+        return new JarTransformer(input, output, jobConfig(config),
+                this.context);
+    }
+
+    @Override
+    public void close() {
+        try {
+            this.context.close();
+            LOGGER.info("batch transformed {} classes in {} ms, {} from cache",
+                        this.totals.get(Counter.CLASSES),
+                        TimeUnit.NANOSECONDS.toMillis(this.totals
+                                .getWallNanos()),
+                        this.totals.get(Counter.CACHE_HITS));
+            if (this.config.getReportFile().isPresent()) {
+                this.totals.writeReport(this.config.getReportFile().get());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
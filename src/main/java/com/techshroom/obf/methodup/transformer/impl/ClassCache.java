@@ -0,0 +1,345 @@
+package com.techshroom.obf.methodup.transformer.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.objectweb.asm.ClassWriter;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.techshroom.obf.methodup.transformer.ClassPass;
+import com.techshroom.obf.methodup.transformer.TransformerConfig;
+
+/**
+ * An on-disk cache of transformed classes, keyed by a hash of the input
+ * bytes, the configuration, the {@link ClassPass#getId() passes} and the
+ * transformer code itself. Entries are
+ * written to a temporary file and moved into place, so several processes can
+ * share one cache directory. The least recently used entries are evicted
+ * once the cache grows past its size limit.
+ * 
+ * <p>
+ * Computed frames depend on the class hierarchy as well as the class, so
+ * every entry also records the common super classes the writer asked for.
+ * They are checked against the current hierarchy before an entry is used.
+ * </p>
+ * 
+ * @author Kenzie Togami
+ */
+final class ClassCache implements Closeable {
+
+    private static final int MAGIC = 0x4D55_4301;
+    private static final String LOCK_FILE = "cache.lock";
+    static final String TEMP_SUFFIX = ".tmp";
+    // temporary files older than this were left by a dead process
+    private static final long STALE_TEMP_MILLIS = TimeUnit.HOURS.toMillis(1);
+    /**
+     * Classes whose code decides the output, a change to any of them must
+     * miss every existing entry.
+     */
+    private static final Class<?>[] OUTPUT_CLASSES = { ClassProcessor.class,
+            DecoyPass.class, DecoyPass.DecoyVisitor.class,
+            DecoyGenerator.class, HierarchyClassWriter.class,
+            ClassWriter.class };
+    private static final byte[] TOOL_VERSION = toolVersion();
+
+    private static final class Entry {
+
+        private final Path path;
+        private final long size;
+        private final FileTime lastUsed;
+
+        Entry(Path path, BasicFileAttributes attrs) {
+            this.path = path;
+            this.size = attrs.size();
+            this.lastUsed = attrs.lastModifiedTime();
+        }
+
+    }
+
+    private static byte[] toolVersion() {
+        Hasher hasher = Hashing.sha256().newHasher();
+        String version = ClassCache.class.getPackage()
+                .getImplementationVersion();
+        hasher.putString(String.valueOf(version), StandardCharsets.UTF_8);
+        for (Class<?> type : OUTPUT_CLASSES) {
+            String resource = type.getName().replace('.', '/') + ".class";
+            try (InputStream stream =
+                    type.getClassLoader().getResourceAsStream(resource)) {
+                if (stream != null) {
+                    hasher.putBytes(ByteStreams.toByteArray(stream));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return hasher.hash().asBytes();
+    }
+
+    /**
+     * Opens the cache configured in the given configuration.
+     * 
+     * @param config
+     *            - The transformer configuration
+     * @return The cache, or {@code null} if caching is disabled
+     */
+    static ClassCache open(TransformerConfig config) {
+        if (!config.getCacheDirectory().isPresent()) {
+            return null;
+        }
+        try {
+            return new ClassCache(config.getCacheDirectory().get(),
+                    config.getMaxCacheSize(), fingerprint(config));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] fingerprint(TransformerConfig config) {
+        Hasher hasher =
+                Hashing.sha256().newHasher().putBytes(TOOL_VERSION)
+                        .putString(config.getFrameMode().name(),
+                                   StandardCharsets.UTF_8)
+                        .putString(config.getDecoyMode().name(),
+                                   StandardCharsets.UTF_8)
+                        .putLong(config.getMaxClassGrowth()
+                                .orElse(Long.MAX_VALUE));
+        for (ClassPass pass : config.getPasses()) {
+            // length first, so "ab"+"c" and "a"+"bc" differ
+            String id = pass.getId();
+            hasher.putInt(id.length()).putString(id, StandardCharsets.UTF_8);
+        }
+        return hasher.hash().asBytes();
+    }
+
+    private final Path directory;
+    private final long maxSize;
+    private final byte[] fingerprint;
+    private final AtomicLong written = new AtomicLong();
+
+    private ClassCache(Path directory, long maxSize, byte[] fingerprint)
+            throws IOException {
+        checkArgument(maxSize > 0, "cache size must be positive, got %s",
+                      maxSize);
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.fingerprint = fingerprint;
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * Computes the key of a class.
+     * 
+     * @param classSource
+     *            - The original class bytes
+     * @return The cache key
+     */
+    String key(byte[] classSource) {
+        return Hashing.sha256().newHasher().putBytes(this.fingerprint)
+                .putBytes(classSource).hash().toString();
+    }
+
+    /**
+     * Looks up a transformed class. A hit counts as a use for eviction.
+     * 
+     * @param key
+     *            - The key from {@link #key(byte[])}
+     * @param hierarchy
+     *            - The hierarchy the class would be transformed against
+     * @return The transformed bytes, or {@code null} if there is no usable
+     *         entry
+     */
+    byte[] get(String key, ClassHierarchy hierarchy) {
+        Path entry = entryPath(key);
+        byte[] transformed;
+        try (DataInputStream in =
+                new DataInputStream(new ByteArrayInputStream(Files
+                        .readAllBytes(entry)))) {
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+            int superClasses = in.readInt();
+            for (int i = 0; i < superClasses; i++) {
+                String type1 = in.readUTF();
+                String type2 = in.readUTF();
+                String common = in.readUTF();
+                if (!common.equals(hierarchy.getCommonSuperClass(type1, type2))) {
+                    return null;
+                }
+            }
+            transformed = new byte[in.readInt()];
+            in.readFully(transformed);
+        } catch (IOException | RuntimeException e) {
+            // missing, truncated, corrupt or the hierarchy changed under it
+            return null;
+        }
+        try {
+            Files.setLastModifiedTime(entry,
+                                      FileTime.fromMillis(System
+                                              .currentTimeMillis()));
+        } catch (IOException ignored) {
+            // evicted in the meantime
+        }
+        return transformed;
+    }
+
+    /**
+     * Stores a transformed class. Failures are ignored, the cache is only an
+     * optimization.
+     * 
+     * @param key
+     *            - The key from {@link #key(byte[])}
+     * @param superClasses
+     *            - The common super class queries made while writing, as
+     *            flattened (type1, type2, result) triples
+     * @param transformed
+     *            - The transformed bytes
+     */
+    void put(String key, List<String> superClasses, byte[] transformed) {
+        ByteArrayOutputStream bytes =
+                new ByteArrayOutputStream(transformed.length + 64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(superClasses.size() / 3);
+            for (String type : superClasses) {
+                out.writeUTF(type);
+            }
+            out.writeInt(transformed.length);
+            out.write(transformed);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Path entry = entryPath(key);
+        Path temp = null;
+        try {
+            Files.createDirectories(entry.getParent());
+            temp = Files.createTempFile(entry.getParent(), key, TEMP_SUFFIX);
+            Files.write(temp, bytes.toByteArray());
+            // readers never see a partial entry
+            Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+            this.written.addAndGet(bytes.size());
+        } catch (IOException e) {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The cache directory, files in its subdirectories are evicted
+     *         along with the classes
+     */
+    Path getDirectory() {
+        return this.directory;
+    }
+
+    /**
+     * Counts a file written to a subdirectory of the cache by something other
+     * than {@link #put(String, List, byte[])}, so that closing the cache
+     * evicts if the file made it too large.
+     * 
+     * @param bytes
+     *            - The size of the file
+     */
+    void addWritten(long bytes) {
+        this.written.addAndGet(bytes);
+    }
+
+    private Path entryPath(String key) {
+        return this.directory.resolve(key.substring(0, 2)).resolve(key);
+    }
+
+    /**
+     * Evicts the least recently used entries if anything was added and the
+     * cache is over its limit.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.written.get() == 0) {
+            return;
+        }
+        // one evictor at a time, across processes too
+        try (FileChannel lockChannel =
+                FileChannel.open(this.directory.resolve(LOCK_FILE),
+                                 StandardOpenOption.CREATE,
+                                 StandardOpenOption.WRITE)) {
+            FileLock lock = lockChannel.lock();
+            try {
+                evict();
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    private void evict() throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        long total = 0;
+        long staleBefore = System.currentTimeMillis() - STALE_TEMP_MILLIS;
+        try (Stream<Path> walk = Files.walk(this.directory, 2)) {
+            for (Path path : (Iterable<Path>) walk::iterator) {
+                // entries live one level down, skip the root and the lock
+                if (path.getNameCount() - this.directory.getNameCount() != 2) {
+                    continue;
+                }
+                BasicFileAttributes attrs;
+                try {
+                    attrs =
+                            Files.readAttributes(path,
+                                                 BasicFileAttributes.class);
+                } catch (NoSuchFileException e) {
+                    continue;
+                }
+                if (path.getFileName().toString().endsWith(TEMP_SUFFIX)) {
+                    if (attrs.lastModifiedTime().toMillis() < staleBefore) {
+                        Files.deleteIfExists(path);
+                    }
+                    continue;
+                }
+                entries.add(new Entry(path, attrs));
+                total += attrs.size();
+            }
+        }
+        if (total <= this.maxSize) {
+            return;
+        }
+        entries.sort(Comparator.comparing(e -> e.lastUsed));
+        for (Entry entry : entries) {
+            if (total <= this.maxSize) {
+                break;
+            }
+            Files.deleteIfExists(entry.path);
+            total -= entry.size;
+        }
+    }
+
+}
@@ -0,0 +1,364 @@
+package com.techshroom.obf.methodup.transformer.impl;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.objectweb.asm.Opcodes;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * An index of superclasses and interfaces, read from class file headers.
+ * Classes are looked up lazily and cached, and nothing is ever loaded, so
+ * frame computation doesn't need a class loader. Safe for use from several
+ * threads.
+ * 
+ * @author Kenzie Togami
+ */
+final class ClassHierarchy implements Closeable {
+
+    private static final String OBJECT = "java/lang/Object";
+
+    /**
+     * The super types of a single class.
+     */
+    static final class ClassInfo {
+
+        private final String name;
+        private final String superName;
+        private final List<String> interfaces;
+        private final boolean isInterface;
+
+        ClassInfo(String name, String superName, List<String> interfaces,
+                boolean isInterface) {
+            this.name = name;
+            this.superName = superName;
+            this.interfaces = interfaces;
+            this.isInterface = isInterface;
+        }
+
+        String getName() {
+            return this.name;
+        }
+
+        String getSuperName() {
+            return this.superName;
+        }
+
+        List<String> getInterfaces() {
+            return this.interfaces;
+        }
+
+        boolean isInterface() {
+            return this.isInterface;
+        }
+
+    }
+
+    /**
+     * Creates a hierarchy over the given classpath and the platform classes.
+     * 
+     * @param classPath
+     *            - Directories and archives to look classes up in
+     * @param cache
+     *            - The cache archive indexes are kept in, may be
+     *            {@code null}
+     * @return A new hierarchy
+     */
+    static ClassHierarchy ofClassPath(List<Path> classPath, ClassCache cache) {
+        return new ClassHierarchy(null, ImmutableList.of(
+                new ClassPathResolver(classPath, cache),
+                ClassSource.platform()));
+    }
+
+    /**
+     * Reads the name, super types and access flags from a class file,
+     * skipping everything past the interfaces table.
+     * 
+     * @param classFile
+     *            - The class file bytes
+     * @return The class information
+     */
+    static ClassInfo readHeader(byte[] classFile) {
+        ByteBuffer buffer = ByteBuffer.wrap(classFile);
+        if (buffer.getInt() != 0xCAFEBABE) {
+            throw new IllegalArgumentException("not a class file");
+        }
+        buffer.position(8);
+        int poolSize = Short.toUnsignedInt(buffer.getShort());
+        int[] offsets = new int[poolSize];
+        for (int i = 1; i < poolSize; i++) {
+            offsets[i] = buffer.position();
+            int tag = buffer.get();
+            switch (tag) {
+                case 1: // utf8
+                    int length = Short.toUnsignedInt(buffer.getShort());
+                    buffer.position(buffer.position() + length);
+                    break;
+                case 7: // class
+                case 8: // string
+                case 16: // method type
+                case 19: // module
+                case 20: // package
+                    buffer.position(buffer.position() + 2);
+                    break;
+                case 15: // method handle
+                    buffer.position(buffer.position() + 3);
+                    break;
+                case 3: // int
+                case 4: // float
+                case 9: // field ref
+                case 10: // method ref
+                case 11: // interface method ref
+                case 12: // name and type
+                case 17: // dynamic
+                case 18: // invokedynamic
+                    buffer.position(buffer.position() + 4);
+                    break;
+                case 5: // long
+                case 6: // double
+                    buffer.position(buffer.position() + 8);
+                    i++;
+                    break;
+                default:
+                    throw new IllegalArgumentException("bad constant tag "
+                            + tag);
+            }
+        }
+        int access = Short.toUnsignedInt(buffer.getShort());
+        String name = className(buffer, offsets, buffer.getShort());
+        String superName = className(buffer, offsets, buffer.getShort());
+        int interfaceCount = Short.toUnsignedInt(buffer.getShort());
+        ImmutableList.Builder<String> interfaces = ImmutableList.builder();
+        for (int i = 0; i < interfaceCount; i++) {
+            interfaces.add(className(buffer, offsets, buffer.getShort()));
+        }
+        return new ClassInfo(name, superName, interfaces.build(),
+                (access & Opcodes.ACC_INTERFACE) != 0);
+    }
+
+    private static String className(ByteBuffer buffer, int[] offsets,
+            short index) {
+        int classIndex = Short.toUnsignedInt(index);
+        if (classIndex == 0) {
+            return null;
+        }
+        int utf8 =
+                offsets[Short.toUnsignedInt(buffer
+                        .getShort(offsets[classIndex] + 1))];
+        try {
+            // class file strings are modified UTF-8, same as DataInput's
+            return new DataInputStream(new ByteArrayInputStream(buffer
+                    .array(), utf8 + 1, buffer.limit() - utf8 - 1)).readUTF();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("bad class name", e);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private final ClassHierarchy parent;
+    private final List<ClassSource> sources;
+    private final ConcurrentMap<String, Optional<ClassInfo>> cache =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Creates a hierarchy that looks in the given sources first and then
+     * falls back to the parent.
+     * 
+     * @param parent
+     *            - The parent hierarchy, may be {@code null}
+     * @param sources
+     *            - The sources to look classes up in, closed with this
+     *            hierarchy
+     */
+    ClassHierarchy(ClassHierarchy parent, List<ClassSource> sources) {
+        this.parent = parent;
+        this.sources = ImmutableList.copyOf(sources);
+    }
+
+    /**
+     * Creates a child of this hierarchy that looks in the given source first.
+     * 
+     * @param source
+     *            - The source to look in first
+     * @return A new hierarchy
+     */
+    ClassHierarchy withSource(ClassSource source) {
+        return new ClassHierarchy(this, ImmutableList.of(checkNotNull(source)));
+    }
+
+    /**
+     * Creates a child of this hierarchy that looks in the given classpath
+     * entries first.
+     * 
+     * @param classPath
+     *            - Directories and archives to look classes up in, may be
+     *            empty
+     * @param cache
+     *            - The cache archive indexes are kept in, may be
+     *            {@code null}
+     * @return A new hierarchy, closing the entries it opens
+     */
+    ClassHierarchy withClassPath(List<Path> classPath, ClassCache cache) {
+        return withSource(new ClassPathResolver(classPath, cache));
+    }
+
+    /**
+     * Finds a class.
+     * 
+     * @param internalName
+     *            - The internal name of the class
+     * @return The class information
+     * @throws TypeNotPresentException
+     *             if no source has the class
+     */
+    ClassInfo get(String internalName) {
+        Optional<ClassInfo> info = find(internalName);
+        if (!info.isPresent()) {
+            throw new TypeNotPresentException(internalName.replace('/', '.'),
+                    null);
+        }
+        return info.get();
+    }
+
+    private Optional<ClassInfo> find(String internalName) {
+        Optional<ClassInfo> info =
+                this.cache.computeIfAbsent(internalName, this::load);
+        if (!info.isPresent() && this.parent != null) {
+            return this.parent.find(internalName);
+        }
+        return info;
+    }
+
+    private Optional<ClassInfo> load(String internalName) {
+        try {
+            for (ClassSource source : this.sources) {
+                ClassInfo info = source.findHeader(internalName);
+                if (info != null) {
+                    return Optional.of(info);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Forgets what is known about a class at this level, so it is read again
+     * on the next lookup.
+     * 
+     * @param internalName
+     *            - The internal name of the class
+     */
+    void invalidate(String internalName) {
+        this.cache.remove(internalName);
+    }
+
+    /**
+     * Forgets what is known about every class in a package and the packages
+     * under it, for when a whole directory of classes is gone.
+     * 
+     * @param packageName
+     *            - The internal name of the package
+     */
+    void invalidatePackage(String packageName) {
+        String prefix = packageName + "/";
+        this.cache.keySet().removeIf(name -> name.startsWith(prefix));
+    }
+
+    /**
+     * Forgets every class looked up at this level.
+     */
+    void invalidateAll() {
+        this.cache.clear();
+    }
+
+    /**
+     * Finds the most specific common super class of the given types, the
+     * same way {@link org.objectweb.asm.ClassWriter#getCommonSuperClass} does
+     * but without loading either of them.
+     * 
+     * @param type1
+     *            - The internal name of the first type
+     * @param type2
+     *            - The internal name of the second type
+     * @return The internal name of the common super class
+     */
+    String getCommonSuperClass(String type1, String type2) {
+        if (type1.equals(type2)) {
+            return type1;
+        }
+        ClassInfo first = get(type1);
+        ClassInfo second = get(type2);
+        if (isAssignableFrom(type1, second)) {
+            return type1;
+        }
+        if (isAssignableFrom(type2, first)) {
+            return type2;
+        }
+        if (first.isInterface() || second.isInterface()) {
+            return OBJECT;
+        }
+        String superName = first.getSuperName();
+        while (superName != null) {
+            if (isAssignableFrom(superName, second)) {
+                return superName;
+            }
+            superName = get(superName).getSuperName();
+        }
+        return OBJECT;
+    }
+
+    private boolean isAssignableFrom(String target, ClassInfo type) {
+        Deque<ClassInfo> queue = new ArrayDeque<>();
+        Set<String> seen = new HashSet<>();
+        queue.add(type);
+        while (!queue.isEmpty()) {
+            ClassInfo next = queue.poll();
+            if (next.getName().equals(target)) {
+                return true;
+            }
+            if (next.getSuperName() != null
+                    && seen.add(next.getSuperName())) {
+                queue.add(get(next.getSuperName()));
+            }
+            for (String iface : next.getInterfaces()) {
+                if (seen.add(iface)) {
+                    queue.add(get(iface));
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Closes the sources of this hierarchy. The parent is left open.
+     */
+    @Override
+    public void close() throws IOException {
+        this.sources.forEach(ClassHierarchy::closeQuietly);
+    }
+
+}
@@ -0,0 +1,260 @@
+package com.techshroom.obf.methodup.transformer.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.techshroom.obf.methodup.transformer.Transformer;
+import com.techshroom.obf.methodup.transformer.TransformerConfig;
+import com.techshroom.obf.methodup.transformer.impl.TransformStats.Counter;
+import com.techshroom.obf.methodup.transformer.impl.TransformStats.Phase;
+import com.techshroom.obf.methodup.util.CompressedEntry;
+import com.techshroom.obf.methodup.util.RawZipEntry;
+import com.techshroom.obf.methodup.util.RawZipFile;
+import com.techshroom.obf.methodup.util.RawZipWriter;
+
+/**
+ * Transforms classes of a directory or a jar into a new jar holding only
+ * those classes, by default every file of a directory, where the files that
+ * aren't classes are copied as they are. Workers read, transform and
+ * compress each entry, this thread writes them in the order they were given,
+ * nothing is staged on disk. The rest of the input is still
+ * there to compute frames against. Like {@link JarTransformer}, reading waits
+ * for earlier classes to be written once the {@link InFlightBudget} is used
+ * up.
+ * 
+ * @author Kenzie Togami
+ */
+final class ClassJarTransformer implements Transformer {
+
+    private static final class PendingEntry {
+
+        private final String name;
+        // completes with null for excluded classes of a jar, copied as-is
+        private final Future<CompressedEntry> compressed;
+        // charged to the budget until written
+        private final long cost;
+
+        PendingEntry(String name, Future<CompressedEntry> compressed,
+                long cost) {
+            this.name = name;
+            this.compressed = compressed;
+            this.cost = cost;
+        }
+
+    }
+
+    private final Path input;
+    // null for every file of the input directory
+    private final ImmutableList<String> classes;
+    private final Path outputJar;
+    private final TransformerConfig config;
+    private final TransformContext shared;
+
+    ClassJarTransformer(Path input, List<String> classes, Path outputJar,
+            TransformerConfig config) {
+        this(input, classes, outputJar, config, null);
+    }
+
+    /**
+     * @param input
+     *            - The input directory or jar
+     * @param classes
+     *            - The entry names of the classes to transform, or
+     *            {@code null} for every file of an input directory, sorted
+     * @param outputJar
+     *            - The output jar, replaced if it exists
+     * @param config
+     *            - The transformer configuration
+     * @param shared
+     *            - The context of the batch this is a job of, may be
+     *            {@code null}
+     */
+    ClassJarTransformer(Path input, List<String> classes, Path outputJar,
+            TransformerConfig config, TransformContext shared) {
+        checkArgument(Files.exists(input), "%s doesn't exist", input);
+        checkArgument(classes != null || Files.isDirectory(input),
+                      "%s must be a directory", input);
+        checkArgument(!Files.isDirectory(outputJar),
+                      "%s must not be a directory",
+                      outputJar);
+        this.input = input;
+        this.classes = classes == null ? null : ImmutableList.copyOf(classes);
+        this.outputJar = outputJar;
+        this.config = config;
+        this.shared = shared;
+    }
+
+    @Override
+    public void transform() {
+        // classes waiting on a worker, kept in order for the writer
+        int window = this.config.getThreads() * 4;
+        List<Throwable> failures = new ArrayList<>();
+        int now = RawZipEntry.toDosTime(System.currentTimeMillis());
+        boolean fromJar = !Files.isDirectory(this.input);
+        try (TransformContext context =
+                TransformContext.of(this.config, this.shared);
+                RawZipFile jar = fromJar ? new RawZipFile(this.input) : null;
+                ClassHierarchy classPath = context.newClassPath(this.config);
+                ClassHierarchy hierarchy =
+                        classPath.withSource(fromJar ? ClassSource.zip(jar)
+                                                     : ClassSource
+                                                             .directory(this.input));
+                RawZipWriter out =
+                        new RawZipWriter(new BufferedOutputStream(Files
+                                .newOutputStream(this.outputJar)))) {
+            ExecutorService workers = context.getWorkers();
+            InFlightBudget budget = context.getBudget();
+            ClassProcessor processor =
+                    new ClassProcessor(this.config, hierarchy,
+                            context.getCache());
+            EntryCompressor compressor =
+                    new EntryCompressor(this.config, processor.getStats());
+            Map<String, RawZipEntry> jarEntries = new HashMap<>();
+            if (fromJar) {
+                jar.entries().forEach(e -> jarEntries.put(e.getName(), e));
+            }
+            Deque<PendingEntry> pending = new ArrayDeque<>();
+            try {
+                for (String name : this.classes == null ? listFiles()
+                                                        : this.classes) {
+                    RawZipEntry entry = jarEntries.get(name);
+                    checkArgument(!fromJar || entry != null, "no %s in %s",
+                                  name, this.input);
+                    long cost =
+                            budget.cost(fromJar ? entry.getSize() : Files
+                                    .size(this.input.resolve(name)));
+                    // this thread is also the writer, so it makes room
+                    // itself, unless only other jobs of a batch hold the
+                    // budget
+                    while (!budget.tryAcquire(cost)) {
+                        if (pending.isEmpty()) {
+                            budget.acquire(cost);
+                            break;
+                        }
+                        write(jar, jarEntries, out, pending.poll(),
+                              processor.getStats(), budget, failures);
+                    }
+                    pending.add(submit(jar, entry, name, cost, processor,
+                                       compressor, workers, now));
+                    if (pending.size() > window) {
+                        write(jar, jarEntries, out, pending.poll(),
+                              processor.getStats(), budget, failures);
+                    }
+                }
+                while (!pending.isEmpty()) {
+                    write(jar, jarEntries, out, pending.poll(),
+                          processor.getStats(), budget, failures);
+                }
+            } finally {
+                // gives back what a failed run was holding, the rest of a
+                // batch goes on
+                for (PendingEntry entry : pending) {
+                    entry.compressed.cancel(false);
+                    budget.release(entry.cost);
+                }
+            }
+            context.report(processor);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while transforming",
+                    e);
+        }
+        if (!failures.isEmpty()) {
+            try {
+                Files.deleteIfExists(this.outputJar);
+            } catch (IOException e) {
+                failures.add(e);
+            }
+        }
+        Workers.checkFailures(failures);
+    }
+
+    private List<String> listFiles() throws IOException {
+        try (Stream<Path> walk = Files.walk(this.input)) {
+            return walk.filter(Files::isRegularFile).sorted()
+                    .map(file -> this.input.relativize(file).toString()
+                            .replace(File.separatorChar, '/'))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private PendingEntry submit(RawZipFile jar, RawZipEntry entry,
+            String name, long cost, ClassProcessor processor,
+            EntryCompressor compressor, ExecutorService workers, int now) {
+        boolean isClass = name.endsWith(".class");
+        boolean accepted =
+                isClass && this.config.getClassFilter().acceptsPath(name);
+        return new PendingEntry(name, workers.submit(() -> {
+            TransformStats stats = processor.getStats();
+            if (!accepted) {
+                if (isClass) {
+                    stats.add(Counter.EXCLUDED, 1);
+                }
+                if (jar != null) {
+                    // copied compressed, never even inflated
+                    return null;
+                }
+            }
+            long start = System.nanoTime();
+            byte[] classFile =
+                    jar != null ? jar.read(entry) : Files
+                            .readAllBytes(this.input.resolve(name));
+            stats.addTime(Phase.READ, System.nanoTime() - start);
+            if (accepted) {
+                classFile = processor.process(classFile, name);
+            }
+            return compressor.compress(name, classFile, now, entry);
+        }), cost);
+    }
+
+    private void write(RawZipFile jar, Map<String, RawZipEntry> jarEntries,
+            RawZipWriter out, PendingEntry pending, TransformStats stats,
+            InFlightBudget budget, List<Throwable> failures)
+            throws IOException {
+        try {
+            CompressedEntry compressed;
+            try {
+                compressed = pending.compressed.get();
+            } catch (ExecutionException e) {
+                // report every class, don't stop at the first one
+                failures.add(new IllegalStateException("failed to transform "
+                        + pending.name, e.getCause()));
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(
+                        "interrupted while transforming", e);
+            }
+            long start = System.nanoTime();
+            if (compressed == null) {
+                out.copyRaw(jar, jarEntries.get(pending.name));
+            } else {
+                out.write(compressed);
+            }
+            stats.addTime(Phase.WRITE, System.nanoTime() - start);
+        } finally {
+            budget.release(pending.cost);
+        }
+    }
+
+}
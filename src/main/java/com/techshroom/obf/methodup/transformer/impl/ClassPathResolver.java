@@ -0,0 +1,178 @@
+package com.techshroom.obf.methodup.transformer.impl;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Closer;
+import com.techshroom.obf.methodup.transformer.impl.ClassHierarchy.ClassInfo;
+import com.techshroom.obf.methodup.util.RawZipFile;
+
+/**
+ * Looks classes up on a classpath, without a class loader. Nothing is opened
+ * up front: an archive is memory-mapped and its central directory indexed
+ * the first time a lookup gets as far as it, so a long classpath costs only
+ * the entries that are actually searched. Entries that don't exist are
+ * skipped, like the JDK tools do. Safe to call from several threads.
+ * 
+ * <p>
+ * Given an index directory, super type lookups in an archive are answered
+ * from its {@link HierarchyIndex} instead, and the archive itself is only
+ * opened to build one.
+ * </p>
+ * 
+ * @author Kenzie Togami
+ */
+final class ClassPathResolver implements ClassSource {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+    // no class loader but the boot loader may define these, so no classpath
+    // entry can have them, and looking would open every archive
+    private static final String PLATFORM_ONLY = "java/";
+
+    /**
+     * A classpath entry, opened on first use.
+     */
+    private static final class Entry {
+
+        private final Path path;
+        private final ClassCache cache;
+        private volatile ClassSource source;
+        private RawZipFile zip;
+        private volatile boolean indexed;
+        private HierarchyIndex index;
+
+        Entry(Path path, ClassCache cache) {
+            this.path = path;
+            this.cache = cache;
+        }
+
+        ClassInfo findHeader(String internalName) throws IOException {
+            HierarchyIndex result = index();
+            return result == null ? source().findHeader(internalName)
+                    : result.get(internalName);
+        }
+
+        private HierarchyIndex index() throws IOException {
+            if (this.cache == null) {
+                return null;
+            }
+            if (!this.indexed) {
+                synchronized (this) {
+                    if (!this.indexed) {
+                        // a missing entry is left to source(), which reports
+                        // it once
+                        if (Files.isRegularFile(this.path)) {
+                            this.index =
+                                    HierarchyIndex.load(this.cache,
+                                                        this.path, this::zip);
+                        }
+                        this.indexed = true;
+                    }
+                }
+            }
+            return this.index;
+        }
+
+        ClassSource source() throws IOException {
+            ClassSource result = this.source;
+            if (result == null) {
+                synchronized (this) {
+                    result = this.source;
+                    if (result == null) {
+                        result = open();
+                        this.source = result;
+                    }
+                }
+            }
+            return result;
+        }
+
+        private ClassSource open() throws IOException {
+            if (!Files.exists(this.path)) {
+                // java and javac skip these too
+                LOGGER.warn("classpath entry {} doesn't exist, skipping it",
+                            this.path);
+                return name -> null;
+            }
+            if (Files.isDirectory(this.path)) {
+                return ClassSource.directory(this.path);
+            }
+            return ClassSource.zip(zip());
+        }
+
+        private synchronized RawZipFile zip() throws IOException {
+            if (this.zip == null) {
+                this.zip = RawZipFile.map(this.path);
+            }
+            return this.zip;
+        }
+
+        synchronized void close() throws IOException {
+            if (this.zip != null) {
+                this.zip.close();
+            }
+        }
+
+    }
+
+    private final ImmutableList<Entry> entries;
+
+    /**
+     * @param classPath
+     *            - Directories and archives to look classes up in, in order
+     * @param cache
+     *            - The cache archive indexes are kept in, may be
+     *            {@code null}
+     */
+    ClassPathResolver(List<Path> classPath, ClassCache cache) {
+        ImmutableList.Builder<Entry> entries = ImmutableList.builder();
+        for (Path path : classPath) {
+            entries.add(new Entry(path, cache));
+        }
+        this.entries = entries.build();
+    }
+
+    @Override
+    public byte[] find(String internalName) throws IOException {
+        if (internalName.startsWith(PLATFORM_ONLY)) {
+            return null;
+        }
+        for (Entry entry : this.entries) {
+            byte[] classFile = entry.source().find(internalName);
+            if (classFile != null) {
+                return classFile;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public ClassInfo findHeader(String internalName) throws IOException {
+        if (internalName.startsWith(PLATFORM_ONLY)) {
+            return null;
+        }
+        for (Entry entry : this.entries) {
+            ClassInfo info = entry.findHeader(internalName);
+            if (info != null) {
+                return info;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (Closer closer = Closer.create()) {
+            for (Entry entry : this.entries) {
+                closer.register(entry::close);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,209 @@
+package com.techshroom.obf.methodup.transformer.impl;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import com.techshroom.obf.methodup.transformer.ClassPass;
+import com.techshroom.obf.methodup.transformer.FrameMode;
+import com.techshroom.obf.methodup.transformer.TransformerConfig;
+import com.techshroom.obf.methodup.transformer.impl.TransformStats.Counter;
+import com.techshroom.obf.methodup.transformer.impl.TransformStats.Phase;
+
+/**
+ * Transforms the bytes of a single class. The configured passes and the
+ * decoys run in one read and one write of the class. Holds no per-class
+ * state, so one instance may be shared by all workers. Collects the
+ * {@link TransformStats} of the run.
+ * 
+ * @author Kenzie Togami
+ */
+final class ClassProcessor {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private final TransformerConfig config;
+    private final DecoyPass decoyPass;
+    private final ClassHierarchy hierarchy;
+    private final ClassCache cache;
+    private final TransformStats stats = new TransformStats();
+
+    /**
+     * @param config
+     *            - The transformer configuration
+     * @param hierarchy
+     *            - The hierarchy to compute frames against
+     * @param cache
+     *            - Where to look up and store transformed classes, may be
+     *            {@code null}
+     */
+    ClassProcessor(TransformerConfig config, ClassHierarchy hierarchy,
+            ClassCache cache) {
+        this.config = checkNotNull(config);
+        this.decoyPass =
+                new DecoyPass(config.getDecoyMode(), config.getMaxClassGrowth()
+                        .orElse(Long.MAX_VALUE));
+        this.hierarchy = checkNotNull(hierarchy);
+        this.cache = cache;
+    }
+
+    TransformerConfig getConfig() {
+        return this.config;
+    }
+
+    TransformStats getStats() {
+        return this.stats;
+    }
+
+    /**
+     * Logs a summary of the run so far, and writes the report if one was
+     * asked for.
+     */
+    void report() {
+        LOGGER.info("transformed {} classes in {} ms, {} from cache",
+                    this.stats.get(Counter.CLASSES),
+                    TimeUnit.NANOSECONDS.toMillis(this.stats.getWallNanos()),
+                    this.stats.get(Counter.CACHE_HITS));
+        if (this.config.getReportFile().isPresent()) {
+            try {
+                this.stats.writeReport(this.config.getReportFile().get());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Transforms the given class.
+     * 
+     * @param classSource
+     *            - The original class bytes
+     * @param sourceName
+     *            - Where the class came from, used for reporting
+     * @return The transformed class bytes
+     */
+    byte[] process(byte[] classSource, String sourceName) {
+        return process(classSource, sourceName, this.hierarchy);
+    }
+
+    /**
+     * Transforms the given class against a different hierarchy than the
+     * processor's own.
+     * 
+     * @param classSource
+     *            - The original class bytes
+     * @param sourceName
+     *            - Where the class came from, used for reporting
+     * @param hierarchy
+     *            - The hierarchy to compute frames against
+     * @return The transformed class bytes
+     */
+    byte[] process(byte[] classSource, String sourceName,
+            ClassHierarchy hierarchy) {
+        long start = System.nanoTime();
+        String key = null;
+        byte[] transformed = null;
+        if (this.cache != null) {
+            key = this.cache.key(classSource);
+            transformed = this.cache.get(key, hierarchy);
+            if (transformed != null) {
+                this.stats.add(Counter.CACHE_HITS, 1);
+            }
+        }
+        if (transformed == null) {
+            HierarchyClassWriter writer =
+                    transform(classSource, sourceName, hierarchy);
+            long serializeStart = System.nanoTime();
+            transformed = writer.toByteArray();
+            this.stats.addTime(Phase.SERIALIZE, System.nanoTime()
+                    - serializeStart);
+            if (this.cache != null) {
+                this.cache.put(key, writer.getResolvedSuperClasses(),
+                               transformed);
+            }
+        }
+        LOGGER.debug("{}: {} -> {} bytes", sourceName, classSource.length,
+                     transformed.length);
+        this.stats.addClass(sourceName, System.nanoTime() - start,
+                            classSource.length, transformed.length);
+        return transformed;
+    }
+
+    private HierarchyClassWriter transform(byte[] classSource,
+            String sourceName, ClassHierarchy hierarchy) {
+        long parseStart = System.nanoTime();
+        boolean preserveFrames =
+                this.config.getFrameMode() == FrameMode.PRESERVE;
+        ClassReader reader = new ClassReader(classSource);
+        // when preserving, the writer shares the reader's constant pool and
+        // copies untouched method bodies as raw bytes, frames and all
+        HierarchyClassWriter writer =
+                preserveFrames ? new HierarchyClassWriter(reader, 0, hierarchy)
+                               : new HierarchyClassWriter(
+                                       ClassWriter.COMPUTE_FRAMES, hierarchy);
+        long[] frameNanos = new long[1];
+        // the decoys go last, so they follow whatever the passes renamed
+        ClassVisitor next =
+                preserveFrames ? writer : new ClassVisitor(Opcodes.ASM5,
+                        writer) {
+
+                    @Override
+                    public MethodVisitor visitMethod(int access, String name,
+                            String desc, String signature, String[] exceptions) {
+                        MethodVisitor methodWriter =
+                                super.visitMethod(access,
+                                                  name,
+                                                  desc,
+                                                  signature,
+                                                  exceptions);
+                        if (methodWriter == null) {
+                            return null;
+                        }
+                        return new MethodVisitor(Opcodes.ASM5, methodWriter) {
+
+                            @Override
+                            public void visitMaxs(int maxStack, int maxLocals) {
+                                // the writer computes the frames here
+                                long start = System.nanoTime();
+                                super.visitMaxs(maxStack, maxLocals);
+                                frameNanos[0] += System.nanoTime() - start;
+                            }
+
+                        };
+                    }
+
+                };
+        // decoys skip the timer, frames of real methods are what it's for
+        DecoyPass.DecoyVisitor decoys = this.decoyPass.wrap(next, writer);
+        ClassVisitor classVisitor = decoys;
+        List<ClassPass> passes = this.config.getPasses();
+        for (int i = passes.size() - 1; i >= 0; i--) {
+            classVisitor =
+                    checkNotNull(passes.get(i).wrap(classVisitor),
+                                 "pass %s returned no visitor", passes.get(i)
+                                         .getId());
+        }
+        reader.accept(classVisitor, 0);
+        this.stats.add(Counter.METHODS, decoys.getMethodCount());
+        this.stats.add(Counter.DECOYS, decoys.getDecoyCount());
+        this.stats.add(Counter.DECOYS_SKIPPED, decoys.getSkippedCount());
+        this.stats.addTime(Phase.FRAMES, frameNanos[0]);
+        this.stats.addTime(Phase.DECOY, decoys.getNanos());
+        this.stats.addTime(Phase.PARSE, System.nanoTime() - parseStart
+                - frameNanos[0] - decoys.getNanos());
+        return writer;
+    }
+
+}
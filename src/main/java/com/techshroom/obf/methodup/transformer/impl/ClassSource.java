@@ -0,0 +1,129 @@
+package com.techshroom.obf.methodup.transformer.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.common.io.ByteStreams;
+import com.techshroom.obf.methodup.util.RawZipEntry;
+import com.techshroom.obf.methodup.util.RawZipFile;
+
+/**
+ * Somewhere class files can be looked up by internal name, without loading
+ * them. Implementations must be safe to call from several threads.
+ * 
+ * @author Kenzie Togami
+ */
+interface ClassSource extends Closeable {
+
+    /**
+     * A source over a directory of class files.
+     * 
+     * @param root
+     *            - The package root
+     * @return A source for the directory
+     */
+    static ClassSource directory(Path root) {
+        return name -> {
+            try {
+                return Files.readAllBytes(root.resolve(name + ".class"));
+            } catch (NoSuchFileException e) {
+                return null;
+            }
+        };
+    }
+
+    /**
+     * A source over an open archive. The archive is not closed with the
+     * source.
+     * 
+     * @param zip
+     *            - The archive
+     * @return A source for the archive
+     */
+    static ClassSource zip(RawZipFile zip) {
+        Map<String, RawZipEntry> classes = new HashMap<>();
+        for (RawZipEntry entry : zip.entries()) {
+            String entryName = entry.getName();
+            if (entryName.endsWith(".class")) {
+                classes.put(entryName.substring(0, entryName.length()
+                        - ".class".length()), entry);
+            }
+        }
+        return name -> {
+            RawZipEntry entry = classes.get(name);
+            return entry == null ? null : zip.read(entry);
+        };
+    }
+
+    /**
+     * A source over classes held in memory.
+     * 
+     * @param classes
+     *            - The class files by internal name, not copied
+     * @return A source for the classes
+     */
+    static ClassSource memory(Map<String, byte[]> classes) {
+        return classes::get;
+    }
+
+    /**
+     * A source over the platform classes, read as resources so that nothing
+     * is loaded or initialized.
+     * 
+     * @return A source for the platform classes
+     */
+    static ClassSource platform() {
+        // the system loader's parent can see the JDK but not our classpath
+        ClassLoader platform = ClassLoader.getSystemClassLoader().getParent();
+        return name -> {
+            String resource = name + ".class";
+            try (InputStream stream =
+                    platform == null ? ClassLoader
+                            .getSystemResourceAsStream(resource) : platform
+                            .getResourceAsStream(resource)) {
+                return stream == null ? null : ByteStreams
+                        .toByteArray(stream);
+            }
+        };
+    }
+
+    /**
+     * Finds the bytes of a class.
+     * 
+     * @param internalName
+     *            - The internal name of the class
+     * @return The class file, or {@code null} if this source doesn't have it
+     * @throws IOException
+     *             if the class file can't be read
+     */
+    byte[] find(String internalName) throws IOException;
+
+    /**
+     * Finds the super types of a class. Sources that know them without
+     * reading the class file may override this.
+     * 
+     * @param internalName
+     *            - The internal name of the class
+     * @return The class information, or {@code null} if this source doesn't
+     *         have it
+     * @throws IOException
+     *             if the class file can't be read
+     */
+    default ClassHierarchy.ClassInfo findHeader(String internalName)
+            throws IOException {
+        byte[] classFile = find(internalName);
+        return classFile == null ? null : ClassHierarchy
+                .readHeader(classFile);
+    }
+
+    @Override
+    default void close() throws IOException {
+    }
+
+}
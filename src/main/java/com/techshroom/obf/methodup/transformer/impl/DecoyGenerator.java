@@ -0,0 +1,167 @@
+package com.techshroom.obf.methodup.transformer.impl;
+
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import com.techshroom.obf.methodup.transformer.DecoyMode;
+
+/**
+ * Writes decoy methods. A decoy has the same name and arguments as the
+ * method it sits next to, but a different return type, and a body that just
+ * returns a constant. The body is written straight from the descriptor, the
+ * original method is never looked at.
+ * 
+ * @author Kenzie Togami
+ */
+final class DecoyGenerator {
+
+    private static final String TARGET_RETURN = "V";
+    private static final String FALLBACK_RETURN = "I";
+
+    /**
+     * The stub bodies, one per decoy return type.
+     */
+    private enum Stub {
+
+        VOID(0, Opcodes.RETURN), INT(1, Opcodes.ICONST_0, Opcodes.IRETURN);
+
+        private final int maxStack;
+        private final int[] instructions;
+
+        Stub(int maxStack, int... instructions) {
+            this.maxStack = maxStack;
+            this.instructions = instructions;
+        }
+
+        void write(MethodVisitor method, int maxLocals) {
+            method.visitCode();
+            for (int opcode : this.instructions) {
+                method.visitInsn(opcode);
+            }
+            // straight-line code, so there are never any frames to write
+            method.visitMaxs(this.maxStack, maxLocals);
+        }
+
+        int getCodeLength() {
+            return this.instructions.length;
+        }
+
+    }
+
+    /**
+     * Picks the descriptor of the decoy for a method.
+     * 
+     * @param desc
+     *            - The descriptor of the original method
+     * @return The same descriptor, returning {@code void}, or {@code int} if
+     *         the original already returned {@code void}
+     */
+    static String getDecoyDescriptor(String desc) {
+        String returnType = Type.getReturnType(desc).getDescriptor();
+        return desc.substring(0, desc.indexOf(')') + 1)
+                + (returnType.equals(TARGET_RETURN) ? FALLBACK_RETURN
+                                                    : TARGET_RETURN);
+    }
+
+    /**
+     * Computes how many bytes a decoy adds to the methods of a class file,
+     * not counting any constants it adds.
+     * 
+     * @param mode
+     *            - The decoy mode
+     * @param access
+     *            - The access flags of the method
+     * @param desc
+     *            - The decoy descriptor
+     * @param exceptions
+     *            - The exceptions the method declares, may be {@code null}
+     * @return At most the size of the decoy's {@code method_info}
+     */
+    static int size(DecoyMode mode, int access, String desc,
+            String[] exceptions) {
+        int decoyAccess = getAccess(mode, access);
+        // access, name, descriptor, attribute count
+        int size = 8;
+        if (hasCode(decoyAccess)) {
+            // attribute header, maximums, code length, no handlers and no
+            // attributes of its own
+            size += 18 + getStub(desc).getCodeLength();
+        }
+        if (mode == DecoyMode.FULL && exceptions != null
+                && exceptions.length > 0) {
+            size += 8 + 2 * exceptions.length;
+        }
+        // the empty Deprecated and Synthetic attributes, the latter only in
+        // old class files
+        if ((decoyAccess & Opcodes.ACC_DEPRECATED) != 0) {
+            size += 6;
+        }
+        if ((decoyAccess & Opcodes.ACC_SYNTHETIC) != 0) {
+            size += 6;
+        }
+        return size;
+    }
+
+    /**
+     * @param access
+     *            - The access flags of a method
+     * @return {@code true} if a method with those flags has a body
+     */
+    static boolean hasCode(int access) {
+        return (access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE)) == 0;
+    }
+
+    private static Stub getStub(String desc) {
+        return desc.endsWith(FALLBACK_RETURN) ? Stub.INT : Stub.VOID;
+    }
+
+    private static int getAccess(DecoyMode mode, int access) {
+        // ASM's pseudo flag for the Deprecated attribute
+        return mode == DecoyMode.LEAN ? access & ~Opcodes.ACC_DEPRECATED
+                                      : access;
+    }
+
+    /**
+     * Writes a decoy to the given class. Abstract and native decoys get no
+     * body. Lean decoys declare no exceptions and are never deprecated.
+     * 
+     * @param target
+     *            - The class to add the decoy to
+     * @param mode
+     *            - The decoy mode
+     * @param access
+     *            - The access flags of the method
+     * @param name
+     *            - The name of the decoy
+     * @param desc
+     *            - The decoy descriptor, from
+     *            {@link #getDecoyDescriptor(String)}
+     * @param exceptions
+     *            - The exceptions the decoy declares, may be {@code null}
+     */
+    static void write(ClassVisitor target, DecoyMode mode, int access,
+            String name, String desc, String[] exceptions) {
+        int decoyAccess = getAccess(mode, access);
+        MethodVisitor method =
+                target.visitMethod(decoyAccess, name, desc, null,
+                                   mode == DecoyMode.LEAN ? null : exceptions);
+        if (method == null) {
+            return;
+        }
+        if (hasCode(decoyAccess)) {
+            int maxLocals = Type.getArgumentsAndReturnSizes(desc) >> 2;
+            if ((decoyAccess & Opcodes.ACC_STATIC) != 0) {
+                // the sizes count the receiver
+                maxLocals--;
+            }
+            getStub(desc).write(method, maxLocals);
+        }
+        method.visitEnd();
+    }
+
+    private DecoyGenerator() {
+    }
+
+}
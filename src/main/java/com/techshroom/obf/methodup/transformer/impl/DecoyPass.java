@@ -0,0 +1,221 @@
+package com.techshroom.obf.methodup.transformer.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import com.techshroom.obf.methodup.transformer.ClassPass;
+import com.techshroom.obf.methodup.transformer.DecoyMode;
+
+/**
+ * The pass that adds a decoy for every method, always the last one. Method
+ * visitors of the next visitor are handed back unwrapped, so a reader-linked
+ * writer can still copy the bodies as is.
+ * 
+ * @author Kenzie Togami
+ */
+final class DecoyPass implements ClassPass {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private static final class Decoy {
+
+        private final int access;
+        private final String name;
+        private final String desc;
+        private final String[] exceptions;
+
+        Decoy(int access, String name, String desc, String[] exceptions) {
+            this.access = access;
+            this.name = name;
+            this.desc = desc;
+            this.exceptions = exceptions;
+        }
+
+    }
+
+    /**
+     * Adds the decoys to one class, and counts what it did.
+     */
+    static final class DecoyVisitor extends ClassVisitor {
+
+        private final ClassVisitor decoyTarget;
+        private final DecoyMode mode;
+        private final long maxGrowth;
+        private String className;
+        // name + desc of every real method, decoys must not clash
+        private final Set<String> methods = new HashSet<>();
+        // descriptors already in the constant pool, they cost nothing more
+        private final Set<String> descriptors = new HashSet<>();
+        private boolean hasCode;
+        // decoys by name + desc, in the order the methods came in
+        private final Map<String, Decoy> decoys = new LinkedHashMap<>();
+        private int written;
+        private int skipped;
+        private long nanos;
+
+        DecoyVisitor(ClassVisitor next, ClassVisitor decoyTarget,
+                DecoyMode mode, long maxGrowth) {
+            super(Opcodes.ASM5, next);
+            this.decoyTarget = decoyTarget;
+            this.mode = mode;
+            this.maxGrowth = maxGrowth;
+        }
+
+        @Override
+        public void visit(int version, int access, String name,
+                String signature, String superName, String[] interfaces) {
+            this.className = name;
+            super.visit(version, access, name, signature, superName,
+                        interfaces);
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String desc,
+                String signature, String[] exceptions) {
+            this.methods.add(name + desc);
+            this.descriptors.add(desc);
+            this.hasCode |= DecoyGenerator.hasCode(access);
+            if (!name.equals("<init>") && !name.equals("<clinit>")) {
+                // don't mess with init's
+                String ret = DecoyGenerator.getDecoyDescriptor(desc);
+                LOGGER.debug("{}: {}{} -> {}", this.className, name, desc, ret);
+                this.decoys.putIfAbsent(name + ret, new Decoy(access, name,
+                        ret, exceptions));
+            }
+            return super.visitMethod(access, name, desc, signature,
+                                     exceptions);
+        }
+
+        @Override
+        public void visitEnd() {
+            long start = System.nanoTime();
+            long growth = 0;
+            // written last, once every real method is known, so that
+            // overloads by return type (bridges) don't collide
+            for (Map.Entry<String, Decoy> entry : this.decoys.entrySet()) {
+                if (this.methods.contains(entry.getKey())) {
+                    continue;
+                }
+                Decoy decoy = entry.getValue();
+                long size = size(decoy);
+                if (growth + size > this.maxGrowth) {
+                    this.skipped++;
+                    continue;
+                }
+                growth += size;
+                this.descriptors.add(decoy.desc);
+                this.hasCode |= DecoyGenerator.hasCode(decoy.access);
+                DecoyGenerator.write(this.decoyTarget, this.mode,
+                                     decoy.access, decoy.name, decoy.desc,
+                                     decoy.exceptions);
+                this.written++;
+            }
+            super.visitEnd();
+            this.nanos = System.nanoTime() - start;
+        }
+
+        // an upper bound, the constant pool may already have more of it
+        private long size(Decoy decoy) {
+            long size =
+                    DecoyGenerator.size(this.mode, decoy.access, decoy.desc,
+                                        decoy.exceptions);
+            if (!this.descriptors.contains(decoy.desc)) {
+                size += 3 + utf8Length(decoy.desc);
+            }
+            if (!this.hasCode && DecoyGenerator.hasCode(decoy.access)) {
+                // the "Code" attribute name
+                size += 3 + 4;
+            }
+            return size;
+        }
+
+        private static int utf8Length(String value) {
+            // the class file's modified UTF-8
+            int length = 0;
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                length += c >= 0x01 && c <= 0x7F ? 1 : c <= 0x7FF ? 2 : 3;
+            }
+            return length;
+        }
+
+        /**
+         * @return The number of real methods
+         */
+        int getMethodCount() {
+            return this.methods.size();
+        }
+
+        /**
+         * @return The number of decoys written
+         */
+        int getDecoyCount() {
+            return this.written;
+        }
+
+        /**
+         * @return The number of decoys left out to stay in the growth limit
+         */
+        int getSkippedCount() {
+            return this.skipped;
+        }
+
+        /**
+         * @return The time spent writing decoys
+         */
+        long getNanos() {
+            return this.nanos;
+        }
+
+    }
+
+    private final DecoyMode mode;
+    private final long maxGrowth;
+
+    /**
+     * @param mode
+     *            - What the decoys look like
+     * @param maxGrowth
+     *            - How many bytes the decoys may add to one class,
+     *            {@link Long#MAX_VALUE} for no limit
+     */
+    DecoyPass(DecoyMode mode, long maxGrowth) {
+        this.mode = checkNotNull(mode);
+        checkArgument(maxGrowth >= 0, "growth must not be negative, got %s",
+                      maxGrowth);
+        this.maxGrowth = maxGrowth;
+    }
+
+    @Override
+    public DecoyVisitor wrap(ClassVisitor next) {
+        return wrap(next, next);
+    }
+
+    /**
+     * Creates the visitor for one class, with the decoys going somewhere
+     * else than the real methods.
+     * 
+     * @param next
+     *            - The visitor the class is passed on to
+     * @param decoyTarget
+     *            - The visitor the decoys are written to, further down the
+     *            same chain
+     * @return A visitor that forwards to {@code next}
+     */
+    DecoyVisitor wrap(ClassVisitor next, ClassVisitor decoyTarget) {
+        return new DecoyVisitor(next, decoyTarget, this.mode, this.maxGrowth);
+    }
+
+}
@@ -3,46 +3,62 @@ package com.techshroom.obf.methodup.transformer.impl;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.file.ClosedWatchServiceException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
 
-import org.objectweb.asm.ClassReader;
-import org.objectweb.asm.ClassVisitor;
-import org.objectweb.asm.ClassWriter;
-import org.objectweb.asm.MethodVisitor;
-import org.objectweb.asm.Opcodes;
-import org.objectweb.asm.Type;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 import com.google.common.base.Throwables;
 import com.techshroom.obf.methodup.transformer.Transformer;
+import com.techshroom.obf.methodup.transformer.TransformerConfig;
+import com.techshroom.obf.methodup.transformer.impl.TransformStats.Counter;
+import com.techshroom.obf.methodup.transformer.impl.TransformStats.Phase;
+import com.techshroom.obf.methodup.util.DestructionVisitor;
 
 final class DirectoryTransformer implements Transformer {
 
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final long WATCH_QUIET_MILLIS = 200;
+
     private class TransformingVisitor
             extends SimpleFileVisitor<Path> {
-        private final Path in = DirectoryTransformer.this.inputDirectory
-                .toAbsolutePath();
-        private final Path out = DirectoryTransformer.this.outputDirectory
-                .toAbsolutePath();
+        private final ClassProcessor processor;
+        private final ExecutorService workers;
+
+        TransformingVisitor(ClassProcessor processor, ExecutorService workers) {
+            this.processor = processor;
+            this.workers = workers;
+        }
 
         @Override
         public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
                 throws IOException {
             super.visitFile(file, attrs);
             if (!file.toString().endsWith(".class")) {
+                copyResource(file);
                 return FileVisitResult.CONTINUE;
             }
-            Path absolutePath = file.toAbsolutePath();
-            checkState(absolutePath.startsWith(this.in), "outside source");
-            Path targetFile =
-                    this.out.resolve(absolutePath.toString()
-                            .replace(this.in.toString(), "."));
-            transform(file, targetFile);
+            submit(this.processor, this.workers, file, attrs.size());
             return FileVisitResult.CONTINUE;
         }
 
@@ -50,8 +66,32 @@ final class DirectoryTransformer implements Transformer {
 
     private final Path inputDirectory;
     private final Path outputDirectory;
+    private final TransformerConfig config;
+    private final TransformContext shared;
+    // the context's, set for each run
+    private InFlightBudget budget;
+    private final Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+    // the registered party is the submitting thread
+    private final Phaser pending = new Phaser(1);
+
+    DirectoryTransformer(Path inputDirectory, Path outputDirectory,
+            TransformerConfig config) {
+        this(inputDirectory, outputDirectory, config, null);
+    }
 
-    DirectoryTransformer(Path inputDirectory, Path outputDirectory) {
+    /**
+     * @param inputDirectory
+     *            - The input directory
+     * @param outputDirectory
+     *            - The output directory
+     * @param config
+     *            - The transformer configuration
+     * @param shared
+     *            - The context of the batch this is a job of, may be
+     *            {@code null}
+     */
+    DirectoryTransformer(Path inputDirectory, Path outputDirectory,
+            TransformerConfig config, TransformContext shared) {
         checkArgument(Files.isDirectory(inputDirectory),
                       "%s must be a directory",
                       inputDirectory);
@@ -60,131 +100,296 @@ final class DirectoryTransformer implements Transformer {
                       outputDirectory);
         this.inputDirectory = inputDirectory;
         this.outputDirectory = outputDirectory;
+        this.config = config;
+        this.shared = shared;
     }
 
     @Override
     public void transform() {
-        try {
-            Files.walkFileTree(this.inputDirectory, new TransformingVisitor());
+        run(false);
+    }
+
+    /**
+     * Transforms the whole directory, then keeps the output up to date with
+     * the input until the thread is interrupted. Created and modified classes
+     * are transformed again and other files copied again, the output of
+     * deleted ones is removed. Bursts of
+     * changes are collected until the input has been quiet for
+     * {@value #WATCH_QUIET_MILLIS} milliseconds.
+     */
+    void watch() {
+        run(true);
+    }
+
+    private void run(boolean watch) {
+        this.failures.clear();
+        int threads = this.config.getThreads();
+        try (TransformContext context =
+                TransformContext.of(this.config, this.shared);
+                ClassHierarchy classPath = context.newClassPath(this.config);
+                ClassHierarchy hierarchy =
+                        classPath.withSource(ClassSource
+                                .directory(this.inputDirectory));
+                WatchService watcher =
+                        watch ? this.inputDirectory.getFileSystem()
+                                .newWatchService() : null) {
+            if (watcher != null) {
+                // before the first pass, so nothing changed during it is lost
+                register(watcher, this.inputDirectory);
+            }
+            this.budget = context.getBudget();
+            ClassProcessor processor =
+                    new ClassProcessor(this.config, hierarchy,
+                            context.getCache());
+            ExecutorService workers =
+                    threads > 1 ? context.getWorkers() : null;
+            try {
+                Files.walkFileTree(this.inputDirectory,
+                                   new TransformingVisitor(processor,
+                                           workers));
+                if (watcher != null) {
+                    awaitBatch();
+                    processor.report();
+                    reportFailures();
+                    watchLoop(watcher, hierarchy, processor, workers);
+                }
+            } finally {
+                // the workers may be a batch's, so wait for our own classes
+                awaitBatch();
+            }
+            context.report(processor);
         } catch (IOException e) {
             throw Throwables.propagate(e);
         }
+        Workers.checkFailures(this.failures);
     }
 
-    private void transform(Path file, Path targetFile) {
-        byte[] classSource;
-        try {
-            classSource = Files.readAllBytes(file);
-            ClassReader reader = new ClassReader(classSource);
-            ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
-            ClassVisitor classVisitor = new ClassVisitor(Opcodes.ASM5, writer) {
-                private static final String TARGET_RETURN = "V";
-                private static final String FALLBACK_RETURN = "I";
-
-                @Override
-                public MethodVisitor visitMethod(int access, String name,
-                        String desc, String signature, String[] exceptions) {
-                    MethodVisitor methodWriter =
-                            super.visitMethod(access,
-                                              name,
-                                              desc,
-                                              signature,
-                                              exceptions);
-                    methodWriter =
-                            new MethodVisitor(Opcodes.ASM5, methodWriter) {
-
-                                @Override
-                                public void visitMaxs(int maxStack,
-                                        int maxLocals) {
-                                    super.visitMaxs(0, 0);
-                                }
-
-                                @Override
-                                public void visitInsn(int opcode) {
-                                    super.visitInsn(opcode);
-                                }
-
-                            };
-                    if (name.equals("<init>") || name.equals("<clinit>")) {
-                        // don't mess with init's
-                        return methodWriter;
+    private void watchLoop(WatchService watcher, ClassHierarchy hierarchy,
+            ClassProcessor processor, ExecutorService workers)
+            throws IOException {
+        while (true) {
+            // most recent kind per path, in the order they first changed
+            Map<Path, WatchEvent.Kind<?>> changes = new LinkedHashMap<>();
+            boolean overflow = false;
+            try {
+                WatchKey key = watcher.take();
+                while (key != null) {
+                    Path dir = (Path) key.watchable();
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            overflow = true;
+                            continue;
+                        }
+                        Path path = dir.resolve((Path) event.context());
+                        WatchEvent.Kind<?> kind = event.kind();
+                        WatchEvent.Kind<?> earlier = changes.remove(path);
+                        if (earlier == StandardWatchEventKinds.ENTRY_CREATE
+                                && kind == StandardWatchEventKinds.ENTRY_MODIFY) {
+                            // still new, it was only written to since
+                            kind = earlier;
+                        }
+                        changes.put(path, kind);
                     }
-                    System.err.println(file);
-                    String ret = getNonConflictingReturn(desc);
-                    boolean usingFallback = ret.endsWith(FALLBACK_RETURN);
-                    MethodVisitor offPuttingMethodWriter =
-                            super.visitMethod(access,
-                                              name,
-                                              ret,
-                                              null,
-                                              exceptions);
-                    offPuttingMethodWriter =
-                            new DoNothingMethodVisitor(Opcodes.ASM5,
-                                    offPuttingMethodWriter) {
-
-                                private boolean hitReturn = false;
-
-                                @Override
-                                public void visitMaxs(int maxStack,
-                                        int maxLocals) {
-                                    this.mv.visitMaxs(0, 0);
-                                }
-
-                                @Override
-                                public void visitInsn(int opcode) {
-                                    if (this.hitReturn) {
-                                        return;
-                                    }
-                                    boolean isReturn =
-                                            Opcodes.IRETURN <= opcode
-                                                    && opcode <= Opcodes.RETURN;
-                                    boolean isVoidReturn =
-                                            opcode == Opcodes.RETURN;
-                                    if (isReturn) {
-                                        this.hitReturn = true;
-                                        checkState(isVoidReturn == usingFallback,
-                                                   "impossible state, report issue with code"
-                                                           + " (method %s; desc %s; file %s)",
-                                                   name,
-                                                   desc,
-                                                   file);
-                                        if (!usingFallback) {
-                                            opcode = Opcodes.RETURN;
-                                        } else {
-                                            this.mv.visitInsn(Opcodes.ICONST_0);
-                                            opcode = Opcodes.IRETURN;
-                                        }
-                                        this.mv.visitInsn(opcode);
-                                    }
-                                }
-                            };
-                    return SplitterMethodVisitor
-                            .resolve(methodWriter, offPuttingMethodWriter);
+                    key.reset();
+                    // compilers write in bursts, wait for them to finish
+                    key = watcher.poll(WATCH_QUIET_MILLIS,
+                                       TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (overflow) {
+                // events were dropped, only a full pass is safe
+                register(watcher, this.inputDirectory);
+                hierarchy.invalidateAll();
+                Files.walkFileTree(this.inputDirectory,
+                                   new TransformingVisitor(processor,
+                                           workers));
+            } else {
+                for (Map.Entry<Path, WatchEvent.Kind<?>> change : changes
+                        .entrySet()) {
+                    applyChange(watcher, hierarchy, processor, workers,
+                                change.getKey(), change.getValue());
                 }
+            }
+            awaitBatch();
+            processor.report();
+            reportFailures();
+        }
+    }
+
+    private void applyChange(WatchService watcher, ClassHierarchy hierarchy,
+            ClassProcessor processor, ExecutorService workers, Path path,
+            WatchEvent.Kind<?> kind) throws IOException {
+        if (Files.isDirectory(path)) {
+            if (kind == StandardWatchEventKinds.ENTRY_MODIFY) {
+                // an entry of it changed, which has an event of its own
+                return;
+            }
+            // a new package, its classes may have landed before the
+            // directory was registered
+            register(watcher, path);
+            Files.walkFileTree(path, new TransformingVisitor(processor,
+                    workers) {
 
-                private String getNonConflictingReturn(String desc) {
-                    String returnType =
-                            Type.getReturnType(desc).getDescriptor();
-                    System.err
-                            .println(desc
-                                    + "->"
-                                    + desc.substring(0, desc.indexOf(')') + 1)
-                                    + (returnType.equals(TARGET_RETURN)
-                                                                       ? FALLBACK_RETURN
-                                                                       : TARGET_RETURN));
-                    return desc.substring(0, desc.indexOf(')') + 1)
-                            + (returnType.equals(TARGET_RETURN)
-                                                               ? FALLBACK_RETURN
-                                                               : TARGET_RETURN);
+                @Override
+                public FileVisitResult visitFile(Path file,
+                        BasicFileAttributes attrs) throws IOException {
+                    invalidate(hierarchy, file);
+                    return super.visitFile(file, attrs);
                 }
-            };
-            reader.accept(classVisitor, 0);
+
+            });
+            return;
+        }
+        Path targetFile = getTargetFile(path);
+        if (Files.exists(path)) {
+            if (path.toString().endsWith(".class")) {
+                invalidate(hierarchy, path);
+                submit(processor, workers, path, Files.size(path));
+            } else {
+                copyResource(path);
+            }
+        } else if (Files.isDirectory(targetFile)) {
+            // a package is gone, and with it every class under it
+            hierarchy.invalidatePackage(getEntryName(path));
+            Files.walkFileTree(targetFile, new DestructionVisitor());
+        } else {
+            invalidate(hierarchy, path);
+            Files.deleteIfExists(targetFile);
+        }
+    }
+
+    private void invalidate(ClassHierarchy hierarchy, Path file) {
+        String name = getEntryName(file);
+        if (name.endsWith(".class")) {
+            hierarchy.invalidate(name.substring(0, name.length()
+                    - ".class".length()));
+        }
+    }
+
+    private String getEntryName(Path file) {
+        return this.inputDirectory.toAbsolutePath()
+                .relativize(file.toAbsolutePath()).toString()
+                .replace(File.separatorChar, '/');
+    }
+
+    private static void register(WatchService watcher, Path root)
+            throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir,
+                    BasicFileAttributes attrs) throws IOException {
+                dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                             StandardWatchEventKinds.ENTRY_MODIFY,
+                             StandardWatchEventKinds.ENTRY_DELETE);
+                return FileVisitResult.CONTINUE;
+            }
+
+        });
+    }
+
+    private void submit(ClassProcessor processor, ExecutorService workers,
+            Path file, long size) {
+        Path targetFile = getTargetFile(file);
+        if (!this.config.getClassFilter().acceptsPath(getEntryName(file))) {
+            copy(processor, file, targetFile);
+            return;
+        }
+        if (workers == null) {
+            // one class at a time, the budget can't be exceeded
+            transform(processor, file, targetFile);
+            return;
+        }
+        // wait here, before the file is read, for the workers to catch up
+        long cost = this.budget.cost(size);
+        try {
+            this.budget.acquire(cost);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while transforming",
+                    e);
+        }
+        this.pending.register();
+        workers.execute(() -> {
+            try {
+                transform(processor, file, targetFile);
+            } finally {
+                this.budget.release(cost);
+                this.pending.arriveAndDeregister();
+            }
+        });
+    }
+
+    private void awaitBatch() {
+        // every submitted class holds up the phase until it is done
+        this.pending.arriveAndAwaitAdvance();
+    }
+
+    private void reportFailures() {
+        // a watch keeps going, a broken class is reported and skipped
+        for (Throwable failure = this.failures.poll(); failure != null; failure =
+                this.failures.poll()) {
+            LOGGER.error("class skipped", failure);
+        }
+    }
+
+    private Path getTargetFile(Path file) {
+        Path absolutePath = file.toAbsolutePath();
+        Path in = this.inputDirectory.toAbsolutePath();
+        checkState(absolutePath.startsWith(in), "outside source");
+        return this.outputDirectory.toAbsolutePath().resolve(in
+                .relativize(absolutePath).toString());
+    }
+
+    private void copy(ClassProcessor processor, Path file, Path targetFile) {
+        // never read into memory, let alone parsed
+        try {
+            long start = System.nanoTime();
+            Files.createDirectories(targetFile.getParent());
+            Files.copy(file, targetFile, StandardCopyOption.REPLACE_EXISTING);
+            processor.getStats().addTime(Phase.WRITE,
+                                         System.nanoTime() - start);
+            processor.getStats().add(Counter.EXCLUDED, 1);
+        } catch (IOException e) {
+            this.failures.add(new IllegalStateException("failed to copy "
+                    + file, e));
+        }
+    }
+
+    private void copyResource(Path file) {
+        // not a class, it goes across as it is
+        try {
+            Path targetFile = getTargetFile(file);
+            Files.createDirectories(targetFile.getParent());
+            Files.copy(file, targetFile, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            this.failures.add(new IllegalStateException("failed to copy "
+                    + file, e));
+        }
+    }
+
+    private void transform(ClassProcessor processor, Path file,
+            Path targetFile) {
+        try {
+            TransformStats stats = processor.getStats();
+            long start = System.nanoTime();
+            byte[] classSource = Files.readAllBytes(file);
+            stats.addTime(Phase.READ, System.nanoTime() - start);
+            byte[] transformed =
+                    processor.process(classSource, file.toString());
+            start = System.nanoTime();
             Files.createDirectories(targetFile.getParent());
             try (OutputStream stream = Files.newOutputStream(targetFile)) {
-                stream.write(writer.toByteArray());
+                stream.write(transformed);
             }
-        } catch (IOException e) {
-            throw Throwables.propagate(e);
+            stats.addTime(Phase.WRITE, System.nanoTime() - start);
+        } catch (Exception e) {
+            // report every class, don't stop at the first one
+            this.failures.add(new IllegalStateException("failed to transform "
+                    + file, e));
         }
     }
 
@@ -0,0 +1,72 @@
+package com.techshroom.obf.methodup.transformer.impl;
+
+import com.techshroom.obf.methodup.transformer.Compression;
+import com.techshroom.obf.methodup.transformer.TransformerConfig;
+import com.techshroom.obf.methodup.transformer.impl.TransformStats.Phase;
+import com.techshroom.obf.methodup.util.CompressedEntry;
+import com.techshroom.obf.methodup.util.RawZipEntry;
+
+/**
+ * Compresses new jar entries as configured. Called on the workers, so the
+ * thread writing the jar only copies bytes.
+ * 
+ * @author Kenzie Togami
+ */
+final class EntryCompressor {
+
+    private final Compression compression;
+    private final int level;
+    private final TransformStats stats;
+
+    /**
+     * @param config
+     *            - The transformer configuration
+     * @param stats
+     *            - Where to record the time spent
+     */
+    EntryCompressor(TransformerConfig config, TransformStats stats) {
+        this.compression = config.getCompression();
+        this.level = config.getCompressionLevel();
+        this.stats = stats;
+    }
+
+    /**
+     * Compresses an entry.
+     * 
+     * @param name
+     *            - The entry name
+     * @param data
+     *            - The uncompressed data
+     * @param dosTime
+     *            - The packed MS-DOS modification time
+     * @param template
+     *            - An entry to take the extra field and comment from, may be
+     *            {@code null}
+     * @return The entry, ready to write
+     */
+    CompressedEntry compress(String name, byte[] data, int dosTime,
+            RawZipEntry template) {
+        long start = System.nanoTime();
+        CompressedEntry entry;
+        switch (this.compression) {
+            case STORE:
+                entry = CompressedEntry.store(name, data, dosTime, template);
+                break;
+            case DEFLATE:
+                entry =
+                        CompressedEntry.deflate(name, data, dosTime,
+                                                template, this.level);
+                break;
+            case SMALLEST:
+                entry =
+                        CompressedEntry.smallest(name, data, dosTime,
+                                                 template, this.level);
+                break;
+            default:
+                throw new AssertionError(this.compression);
+        }
+        this.stats.addTime(Phase.COMPRESS, System.nanoTime() - start);
+        return entry;
+    }
+
+}
@@ -0,0 +1,55 @@
+package com.techshroom.obf.methodup.transformer.impl;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+
+/**
+ * A class writer that answers {@link #getCommonSuperClass(String, String)}
+ * from a {@link ClassHierarchy} instead of loading classes.
+ * 
+ * @author Kenzie Togami
+ */
+final class HierarchyClassWriter
+        extends ClassWriter {
+
+    private final ClassHierarchy hierarchy;
+    private final List<String> superClasses = new ArrayList<>();
+
+    HierarchyClassWriter(int flags, ClassHierarchy hierarchy) {
+        super(flags);
+        this.hierarchy = checkNotNull(hierarchy);
+    }
+
+    /**
+     * Creates a writer that shares the constant pool of the reader, and can
+     * copy methods that are passed through unchanged as raw bytes.
+     */
+    HierarchyClassWriter(ClassReader reader, int flags,
+            ClassHierarchy hierarchy) {
+        super(reader, flags);
+        this.hierarchy = checkNotNull(hierarchy);
+    }
+
+    /**
+     * @return Every common super class answered so far, as flattened
+     *         (type1, type2, result) triples
+     */
+    List<String> getResolvedSuperClasses() {
+        return this.superClasses;
+    }
+
+    @Override
+    protected String getCommonSuperClass(String type1, String type2) {
+        String common = this.hierarchy.getCommonSuperClass(type1, type2);
+        this.superClasses.add(type1);
+        this.superClasses.add(type2);
+        this.superClasses.add(common);
+        return common;
+    }
+
+}
@@ -0,0 +1,376 @@
+package com.techshroom.obf.methodup.transformer.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.UnsignedBytes;
+import com.techshroom.obf.methodup.transformer.impl.ClassHierarchy.ClassInfo;
+import com.techshroom.obf.methodup.util.RawZipEntry;
+import com.techshroom.obf.methodup.util.RawZipFile;
+
+/**
+ * The super types of every class in an archive, kept on disk so that later
+ * runs can answer hierarchy lookups without reading the archive again. An
+ * index is built the first time a run looks in its archive, and is used for
+ * as long as the archive's path, size, modification time and the hash of its
+ * end record stay the same. Only if one of those changed is the central
+ * directory read, an archive that was touched or copied without changing
+ * keeps its index.
+ * 
+ * <p>
+ * Indexes live in the {@code hierarchy} directory of the class cache and
+ * share its size limit. Each is a single file, memory-mapped when read:
+ * </p>
+ * 
+ * <pre>
+ * int magic, long size, long modified, long end record hash,
+ * long central directory hash, int path length, path bytes,
+ * int class count, int string count,
+ * int[string count] string offsets,
+ * class count * { int name, int super (-1 for none), int interface flag,
+ *                 int first interface, int interface count },
+ * int interface count, int[interface count] interfaces,
+ * strings as { u2 length, UTF-8 bytes }
+ * </pre>
+ * 
+ * <p>
+ * Classes are sorted by the bytes of their name, so a lookup is a binary
+ * search over the mapping that decodes only what it returns.
+ * </p>
+ * 
+ * @author Kenzie Togami
+ */
+final class HierarchyIndex {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final int MAGIC = 0x4D55_4802;
+    private static final String DIRECTORY = "hierarchy";
+    private static final int SIZE_AT = 4;
+    private static final int MODIFIED_AT = 12;
+    private static final int END_HASH_AT = 20;
+    private static final int CENTRAL_HASH_AT = 28;
+    private static final int PATH_LENGTH_AT = 36;
+    private static final int PATH_AT = 40;
+    private static final int RECORD_INTS = 5;
+    private static final Comparator<byte[]> NAME_ORDER = UnsignedBytes
+            .lexicographicalComparator();
+
+    /**
+     * Something that opens the archive, only called if it must be read.
+     */
+    interface ArchiveOpener {
+
+        RawZipFile open() throws IOException;
+
+    }
+
+    /**
+     * Loads the index of an archive, building and storing it if there is none
+     * or the archive changed. Failing to store it only costs the next run.
+     * 
+     * @param cache
+     *            - The cache the index is kept in
+     * @param archive
+     *            - The archive
+     * @param opener
+     *            - Opens the archive if the index must be built, the archive
+     *            is not closed
+     * @return The index
+     * @throws IOException
+     *             if the archive can't be read
+     */
+    static HierarchyIndex load(ClassCache cache, Path archive,
+            ArchiveOpener opener) throws IOException {
+        Path path = archive.toAbsolutePath().normalize();
+        BasicFileAttributes attrs =
+                Files.readAttributes(path, BasicFileAttributes.class);
+        long modified = attrs.lastModifiedTime().toMillis();
+        long endHash = RawZipFile.hashEndRecord(path);
+        byte[] pathBytes = path.toString().getBytes(StandardCharsets.UTF_8);
+        Path file =
+                cache.getDirectory().resolve(DIRECTORY)
+                        .resolve(Hashing.sha256().hashBytes(pathBytes)
+                                .toString());
+        ByteBuffer stored = map(file);
+        boolean ours = stored != null && isIndexOf(stored, pathBytes);
+        if (ours && stored.getLong(SIZE_AT) == attrs.size()
+                && stored.getLong(MODIFIED_AT) == modified
+                && stored.getLong(END_HASH_AT) == endHash) {
+            try {
+                // a use, as far as the cache's eviction goes
+                Files.setLastModifiedTime(file, FileTime.fromMillis(System
+                        .currentTimeMillis()));
+            } catch (IOException ignored) {
+                // evicted in the meantime, the mapping stays valid
+            }
+            return new HierarchyIndex(stored);
+        }
+        long hash = RawZipFile.hashCentralDirectory(path);
+        if (ours && stored.getLong(CENTRAL_HASH_AT) == hash) {
+            // touched or copied, the classes are the same
+            byte[] index = new byte[stored.capacity()];
+            stored.duplicate().get(index);
+            ByteBuffer.wrap(index).putLong(SIZE_AT, attrs.size())
+                    .putLong(MODIFIED_AT, modified)
+                    .putLong(END_HASH_AT, endHash);
+            store(cache, file, index);
+            return new HierarchyIndex(ByteBuffer.wrap(index));
+        }
+        long start = System.nanoTime();
+        byte[] built =
+                build(opener.open(), attrs.size(), modified, endHash, hash,
+                      pathBytes);
+        store(cache, file, built);
+        LOGGER.debug("indexed {} in {} ms", path,
+                     (System.nanoTime() - start) / 1_000_000);
+        return new HierarchyIndex(ByteBuffer.wrap(built));
+    }
+
+    private static ByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel =
+                FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                               channel.size());
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private static boolean isIndexOf(ByteBuffer index, byte[] pathBytes) {
+        if (index.capacity() < PATH_AT || index.getInt(0) != MAGIC
+                || index.getInt(PATH_LENGTH_AT) != pathBytes.length
+                || index.capacity() < PATH_AT + pathBytes.length) {
+            return false;
+        }
+        for (int i = 0; i < pathBytes.length; i++) {
+            if (index.get(PATH_AT + i) != pathBytes[i]) {
+                // two paths with the same hash, rebuild for this one
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] build(RawZipFile zip, long size, long modified,
+            long endHash, long hash, byte[] pathBytes) throws IOException {
+        List<byte[]> names = new ArrayList<>();
+        Map<String, Integer> strings = new HashMap<>();
+        List<byte[]> stringBytes = new ArrayList<>();
+        Map<byte[], ClassInfo> infos = new HashMap<>();
+        for (RawZipEntry entry : zip.entries()) {
+            String entryName = entry.getName();
+            if (entry.isDirectory() || !entryName.endsWith(".class")) {
+                continue;
+            }
+            ClassInfo info;
+            try {
+                info = ClassHierarchy.readHeader(zip.read(entry));
+            } catch (IllegalArgumentException | BufferUnderflowException
+                    | IndexOutOfBoundsException e) {
+                // not a class file after all, nobody can look it up either
+                continue;
+            }
+            byte[] name =
+                    entryName.substring(0,
+                                        entryName.length() - ".class".length())
+                            .getBytes(StandardCharsets.UTF_8);
+            names.add(name);
+            infos.put(name, info);
+        }
+        names.sort(NAME_ORDER);
+        List<Integer> interfaces = new ArrayList<>();
+        int[] records = new int[names.size() * RECORD_INTS];
+        for (int i = 0; i < names.size(); i++) {
+            byte[] name = names.get(i);
+            ClassInfo info = infos.get(name);
+            int record = i * RECORD_INTS;
+            records[record] =
+                    intern(new String(name, StandardCharsets.UTF_8), strings,
+                           stringBytes);
+            records[record + 1] =
+                    info.getSuperName() == null ? -1 : intern(info
+                            .getSuperName(), strings, stringBytes);
+            records[record + 2] = info.isInterface() ? 1 : 0;
+            records[record + 3] = interfaces.size();
+            records[record + 4] = info.getInterfaces().size();
+            for (String iface : info.getInterfaces()) {
+                interfaces.add(intern(iface, strings, stringBytes));
+            }
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeLong(size);
+            out.writeLong(modified);
+            out.writeLong(endHash);
+            out.writeLong(hash);
+            out.writeInt(pathBytes.length);
+            out.write(pathBytes);
+            out.writeInt(names.size());
+            out.writeInt(stringBytes.size());
+            int offset = 0;
+            for (byte[] string : stringBytes) {
+                out.writeInt(offset);
+                offset += 2 + string.length;
+            }
+            for (int value : records) {
+                out.writeInt(value);
+            }
+            out.writeInt(interfaces.size());
+            for (int value : interfaces) {
+                out.writeInt(value);
+            }
+            for (byte[] string : stringBytes) {
+                out.writeShort(string.length);
+                out.write(string);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static int intern(String string, Map<String, Integer> strings,
+            List<byte[]> stringBytes) {
+        return strings.computeIfAbsent(string, s -> {
+            stringBytes.add(s.getBytes(StandardCharsets.UTF_8));
+            return stringBytes.size() - 1;
+        });
+    }
+
+    private static void store(ClassCache cache, Path file, byte[] index) {
+        Path temp = null;
+        try {
+            Files.createDirectories(file.getParent());
+            temp =
+                    Files.createTempFile(file.getParent(), file.getFileName()
+                            .toString(), ClassCache.TEMP_SUFFIX);
+            Files.write(temp, index);
+            // readers never see a partial index
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+            cache.addWritten(index.length);
+        } catch (IOException e) {
+            LOGGER.debug("couldn't store " + file, e);
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private final ByteBuffer index;
+    private final int classCount;
+    private final int offsetsStart;
+    private final int recordsStart;
+    private final int interfacesStart;
+    private final int stringsStart;
+
+    private HierarchyIndex(ByteBuffer index) {
+        this.index = index;
+        int countsStart = PATH_AT + index.getInt(PATH_LENGTH_AT);
+        this.classCount = index.getInt(countsStart);
+        int stringCount = index.getInt(countsStart + 4);
+        this.offsetsStart = countsStart + 8;
+        this.recordsStart = this.offsetsStart + stringCount * 4;
+        int interfaceCountAt =
+                this.recordsStart + this.classCount * RECORD_INTS * 4;
+        this.interfacesStart = interfaceCountAt + 4;
+        this.stringsStart =
+                this.interfacesStart + index.getInt(interfaceCountAt) * 4;
+    }
+
+    /**
+     * Finds a class of the archive.
+     * 
+     * @param internalName
+     *            - The internal name of the class
+     * @return The class information, or {@code null} if the archive doesn't
+     *         have the class
+     */
+    ClassInfo get(String internalName) {
+        byte[] name = internalName.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = this.classCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int record = this.recordsStart + middle * RECORD_INTS * 4;
+            int compared = compare(this.index.getInt(record), name);
+            if (compared < 0) {
+                low = middle + 1;
+            } else if (compared > 0) {
+                high = middle - 1;
+            } else {
+                return read(record);
+            }
+        }
+        return null;
+    }
+
+    private ClassInfo read(int record) {
+        int superIndex = this.index.getInt(record + 4);
+        int firstInterface = this.index.getInt(record + 12);
+        int interfaceCount = this.index.getInt(record + 16);
+        ImmutableList.Builder<String> interfaces = ImmutableList.builder();
+        for (int i = 0; i < interfaceCount; i++) {
+            interfaces.add(string(this.index.getInt(this.interfacesStart
+                    + (firstInterface + i) * 4)));
+        }
+        return new ClassInfo(string(this.index.getInt(record)),
+                superIndex < 0 ? null : string(superIndex),
+                interfaces.build(), this.index.getInt(record + 8) != 0);
+    }
+
+    // compares a stored string with the given bytes, unsigned
+    private int compare(int stringIndex, byte[] bytes) {
+        int at = stringAt(stringIndex);
+        int length = Short.toUnsignedInt(this.index.getShort(at));
+        for (int i = 0; i < Math.min(length, bytes.length); i++) {
+            int compared =
+                    Integer.compare(Byte.toUnsignedInt(this.index.get(at + 2
+                            + i)), Byte.toUnsignedInt(bytes[i]));
+            if (compared != 0) {
+                return compared;
+            }
+        }
+        return Integer.compare(length, bytes.length);
+    }
+
+    private String string(int stringIndex) {
+        int at = stringAt(stringIndex);
+        byte[] bytes = new byte[Short.toUnsignedInt(this.index.getShort(at))];
+        // a duplicate, so concurrent lookups don't share a position
+        ByteBuffer source = this.index.duplicate();
+        source.position(at + 2);
+        source.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int stringAt(int stringIndex) {
+        return this.stringsStart
+                + this.index.getInt(this.offsetsStart + stringIndex * 4);
+    }
+
+}
@@ -0,0 +1,89 @@
+package com.techshroom.obf.methodup.transformer.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Limits how many bytes of classes are held in memory at once. A class is
+ * charged when it is read and released once its output is written.
+ * 
+ * <p>
+ * The transformed class isn't known when the original is read, so a class is
+ * charged {@value #COST_FACTOR} times its size: the original, and the output
+ * with room for the decoys and for its compressed copy, when writing a jar.
+ * A class larger than the whole budget is charged the whole budget, so it
+ * still goes through, alone.
+ * </p>
+ * 
+ * @author Kenzie Togami
+ */
+final class InFlightBudget {
+
+    private static final int COST_FACTOR = 3;
+
+    private final long limit;
+    private long used;
+
+    /**
+     * @param limit
+     *            - The budget in bytes
+     */
+    InFlightBudget(long limit) {
+        checkArgument(limit > 0, "in-flight budget must be positive, got %s",
+                      limit);
+        this.limit = limit;
+    }
+
+    /**
+     * @param classSize
+     *            - The size of the original class
+     * @return What the class is charged
+     */
+    long cost(long classSize) {
+        return Math.min(this.limit, Math.max(classSize, 1) * COST_FACTOR);
+    }
+
+    /**
+     * Charges the budget, waiting for other classes to be released if it is
+     * used up.
+     * 
+     * @param cost
+     *            - The cost, from {@link #cost(long)}
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    synchronized void acquire(long cost) throws InterruptedException {
+        while (!tryAcquire(cost)) {
+            wait();
+        }
+    }
+
+    /**
+     * Charges the budget if there is room.
+     * 
+     * @param cost
+     *            - The cost, from {@link #cost(long)}
+     * @return {@code true} if the budget was charged
+     */
+    synchronized boolean tryAcquire(long cost) {
+        if (this.used + cost > this.limit) {
+            return false;
+        }
+        this.used += cost;
+        return true;
+    }
+
+    /**
+     * Gives back a charge.
+     * 
+     * @param cost
+     *            - The cost that was acquired
+     */
+    synchronized void release(long cost) {
+        checkState(cost <= this.used, "releasing %s, only %s in use", cost,
+                   this.used);
+        this.used -= cost;
+        notifyAll();
+    }
+
+}
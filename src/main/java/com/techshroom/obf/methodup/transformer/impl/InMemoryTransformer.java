@@ -0,0 +1,119 @@
+package com.techshroom.obf.methodup.transformer.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.objectweb.asm.ClassReader;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Closer;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.techshroom.obf.methodup.transformer.ClassFilter;
+import com.techshroom.obf.methodup.transformer.ClassTransformer;
+import com.techshroom.obf.methodup.transformer.TransformerConfig;
+import com.techshroom.obf.methodup.transformer.impl.TransformStats.Counter;
+import com.techshroom.obf.methodup.util.Pools;
+
+/**
+ * Transforms classes in memory. One classpath, cache and worker pool are
+ * shared by every call, each call gets its own hierarchy on top of the
+ * classpath with the classes it was given.
+ * 
+ * @author Kenzie Togami
+ */
+final class InMemoryTransformer implements ClassTransformer {
+
+    private final ClassHierarchy classPath;
+    private final ClassCache cache;
+    private final ClassProcessor processor;
+    private final ExecutorService workers;
+    private final ClassFilter filter;
+
+    InMemoryTransformer(TransformerConfig config) {
+        this.filter = config.getClassFilter();
+        this.cache = ClassCache.open(config);
+        this.classPath =
+                ClassHierarchy.ofClassPath(config.getClassPath(), this.cache);
+        this.processor =
+                new ClassProcessor(config, this.classPath, this.cache);
+        int threads = config.getThreads();
+        this.workers =
+                threads > 1 ? Workers.newPool(threads) : MoreExecutors
+                        .newDirectExecutorService();
+    }
+
+    @Override
+    public byte[] transform(byte[] classFile) {
+        String name = new ClassReader(classFile).getClassName();
+        if (!this.filter.accepts(name)) {
+            this.processor.getStats().add(Counter.EXCLUDED, 1);
+            return classFile;
+        }
+        // an in-memory source holds nothing to close
+        ClassHierarchy hierarchy =
+                this.classPath.withSource(ClassSource.memory(ImmutableMap.of(
+                        name, classFile)));
+        return this.processor.process(classFile, name, hierarchy);
+    }
+
+    @Override
+    public Map<String, byte[]> transformAll(Map<String, byte[]> classes) {
+        // copied, so the batch can't change under the workers
+        Map<String, byte[]> batch = ImmutableMap.copyOf(classes);
+        Map<String, Future<byte[]>> pending = new LinkedHashMap<>();
+        Map<String, byte[]> result = new LinkedHashMap<>();
+        List<Throwable> failures = new ArrayList<>();
+        ClassHierarchy hierarchy =
+                this.classPath.withSource(ClassSource.memory(batch));
+        try {
+            batch.forEach((name, classFile) -> {
+                if (this.filter.accepts(name)) {
+                    pending.put(name, this.workers.submit(() -> this.processor
+                            .process(classFile, name, hierarchy)));
+                } else {
+                    this.processor.getStats().add(Counter.EXCLUDED, 1);
+                    pending.put(name, Futures.immediateFuture(classFile));
+                }
+            });
+            for (Map.Entry<String, Future<byte[]>> entry : pending
+                    .entrySet()) {
+                try {
+                    result.put(entry.getKey(), entry.getValue().get());
+                } catch (ExecutionException e) {
+                    // report every class, don't stop at the first one
+                    failures.add(new IllegalStateException(
+                            "failed to transform " + entry.getKey(), e
+                                    .getCause()));
+                }
+            }
+        } catch (InterruptedException e) {
+            pending.values().forEach(f -> f.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while transforming",
+                    e);
+        }
+        Workers.checkFailures(failures);
+        return result;
+    }
+
+    @Override
+    public void close() {
+        Pools.await(this.workers);
+        try (Closer closer = Closer.create()) {
+            // the cache is null when disabled, which the closer skips
+            closer.register(this.classPath);
+            closer.register(this.cache);
+            this.processor.report();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -0,0 +1,244 @@
+package com.techshroom.obf.methodup.transformer.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.google.common.base.Throwables;
+import com.techshroom.obf.methodup.transformer.Transformer;
+import com.techshroom.obf.methodup.transformer.TransformerConfig;
+import com.techshroom.obf.methodup.transformer.impl.TransformStats.Counter;
+import com.techshroom.obf.methodup.transformer.impl.TransformStats.Phase;
+import com.techshroom.obf.methodup.util.CompressedEntry;
+import com.techshroom.obf.methodup.util.RawZipEntry;
+import com.techshroom.obf.methodup.util.RawZipFile;
+import com.techshroom.obf.methodup.util.RawZipWriter;
+
+/**
+ * Transforms a jar straight into another jar. Each entry is read, then
+ * transformed and compressed in memory by a worker, and written to the
+ * output in input order, nothing is staged on disk. Entries that don't change
+ * are copied as their compressed bytes. Reading waits for earlier entries to
+ * be written once the {@link InFlightBudget} is used up.
+ * 
+ * @author Kenzie Togami
+ */
+final class JarTransformer implements Transformer {
+
+    private static final class PendingEntry {
+
+        private final RawZipEntry entry;
+        // null for entries that are copied as-is, completes with null if
+        // the transform changed nothing
+        private final Future<CompressedEntry> transformed;
+        // charged to the budget until written
+        private final long cost;
+
+        PendingEntry(RawZipEntry entry, Future<CompressedEntry> transformed,
+                long cost) {
+            this.entry = entry;
+            this.transformed = transformed;
+            this.cost = cost;
+        }
+
+    }
+
+    private final Path inputJar;
+    private final Path outputJar;
+    private final TransformerConfig config;
+    private final TransformContext shared;
+
+    JarTransformer(Path inputJar, Path outputJar, TransformerConfig config) {
+        this(inputJar, outputJar, config, null);
+    }
+
+    /**
+     * @param inputJar
+     *            - The input jar
+     * @param outputJar
+     *            - The output jar, replaced if it exists
+     * @param config
+     *            - The transformer configuration
+     * @param shared
+     *            - The context of the batch this is a job of, may be
+     *            {@code null}
+     */
+    JarTransformer(Path inputJar, Path outputJar, TransformerConfig config,
+            TransformContext shared) {
+        checkArgument(Files.isRegularFile(inputJar),
+                      "%s must be a file",
+                      inputJar);
+        checkArgument(!Files.isDirectory(outputJar),
+                      "%s must not be a directory",
+                      outputJar);
+        this.inputJar = inputJar;
+        this.outputJar = outputJar;
+        this.config = config;
+        this.shared = shared;
+    }
+
+    @Override
+    public void transform() {
+        // entries waiting on a worker, kept in input order for the writer
+        int window = this.config.getThreads() * 4;
+        List<Throwable> failures = new ArrayList<>();
+        // update time of replaced entries
+        int now = RawZipEntry.toDosTime(System.currentTimeMillis());
+        try (TransformContext context =
+                TransformContext.of(this.config, this.shared);
+                RawZipFile jar = new RawZipFile(this.inputJar);
+                ClassHierarchy classPath = context.newClassPath(this.config);
+                ClassHierarchy hierarchy =
+                        classPath.withSource(ClassSource.zip(jar));
+                RawZipWriter out =
+                        new RawZipWriter(new BufferedOutputStream(Files
+                                .newOutputStream(this.outputJar)))) {
+            ExecutorService workers = context.getWorkers();
+            InFlightBudget budget = context.getBudget();
+            ClassProcessor processor =
+                    new ClassProcessor(this.config, hierarchy,
+                            context.getCache());
+            EntryCompressor compressor =
+                    new EntryCompressor(this.config, processor.getStats());
+            Deque<PendingEntry> pending = new ArrayDeque<>();
+            try {
+                for (RawZipEntry entry : jar.entries()) {
+                    long cost =
+                            isTransformed(entry) ? budget.cost(entry
+                                    .getSize()) : 0;
+                    // this thread is also the writer, so it makes room
+                    // itself, unless only other jobs of a batch hold the
+                    // budget
+                    while (!budget.tryAcquire(cost)) {
+                        if (pending.isEmpty()) {
+                            budget.acquire(cost);
+                            break;
+                        }
+                        write(jar, out, pending.poll(), processor
+                                .getStats(), budget, failures);
+                    }
+                    pending.add(submit(jar, entry, cost, processor,
+                                       compressor, workers, now));
+                    if (pending.size() > window) {
+                        write(jar, out, pending.poll(), processor
+                                .getStats(), budget, failures);
+                    }
+                }
+                while (!pending.isEmpty()) {
+                    write(jar, out, pending.poll(), processor.getStats(),
+                          budget, failures);
+                }
+            } finally {
+                // gives back what a failed run was holding, the rest of a
+                // batch goes on
+                for (PendingEntry entry : pending) {
+                    if (entry.transformed != null) {
+                        entry.transformed.cancel(false);
+                    }
+                    budget.release(entry.cost);
+                }
+            }
+            context.report(processor);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while transforming",
+                    e);
+        }
+        if (!failures.isEmpty()) {
+            try {
+                Files.deleteIfExists(this.outputJar);
+            } catch (IOException e) {
+                failures.add(e);
+            }
+        }
+        Workers.checkFailures(failures);
+    }
+
+    private static boolean isClass(RawZipEntry entry) {
+        return !entry.isDirectory() && entry.getName().endsWith(".class");
+    }
+
+    private boolean isTransformed(RawZipEntry entry) {
+        return isClass(entry)
+                && this.config.getClassFilter().acceptsPath(entry.getName());
+    }
+
+    private PendingEntry submit(RawZipFile jar, RawZipEntry entry, long cost,
+            ClassProcessor processor, EntryCompressor compressor,
+            ExecutorService workers, int now) throws IOException {
+        String name = entry.getName();
+        if (!isTransformed(entry)) {
+            if (isClass(entry)) {
+                // copied compressed, never even inflated
+                processor.getStats().add(Counter.EXCLUDED, 1);
+            }
+            return new PendingEntry(entry, null, cost);
+        }
+        long start = System.nanoTime();
+        byte[] classSource = jar.read(entry);
+        processor.getStats().addTime(Phase.READ, System.nanoTime() - start);
+        return new PendingEntry(entry, workers.submit(() -> {
+            byte[] transformed = processor.process(classSource, name);
+            // unchanged classes keep their original compressed bytes
+            if (Arrays.equals(transformed, classSource)) {
+                return null;
+            }
+            return compressor.compress(name, transformed, now, entry);
+        }), cost);
+    }
+
+    private void write(RawZipFile jar, RawZipWriter out, PendingEntry pending,
+            TransformStats stats, InFlightBudget budget,
+            List<Throwable> failures) throws IOException {
+        try {
+            writeEntry(jar, out, pending, stats, failures);
+        } finally {
+            budget.release(pending.cost);
+        }
+    }
+
+    private void writeEntry(RawZipFile jar, RawZipWriter out,
+            PendingEntry pending, TransformStats stats,
+            List<Throwable> failures)
+            throws IOException {
+        RawZipEntry original = pending.entry;
+        if (pending.transformed == null) {
+            out.copyRaw(jar, original);
+            return;
+        }
+        CompressedEntry transformed;
+        try {
+            transformed = pending.transformed.get();
+        } catch (ExecutionException e) {
+            // report every class, don't stop at the first one
+            failures.add(new IllegalStateException("failed to transform "
+                    + original.getName(), e.getCause()));
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while transforming",
+                    e);
+        }
+        long start = System.nanoTime();
+        if (transformed == null) {
+            out.copyRaw(jar, original);
+        } else {
+            out.write(transformed);
+        }
+        stats.addTime(Phase.WRITE, System.nanoTime() - start);
+    }
+
+}
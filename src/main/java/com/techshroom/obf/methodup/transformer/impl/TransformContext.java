@@ -0,0 +1,167 @@
+package com.techshroom.obf.methodup.transformer.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Collectors;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Closer;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.techshroom.obf.methodup.transformer.TransformerConfig;
+import com.techshroom.obf.methodup.util.Pools;
+
+/**
+ * What a transform runs with besides its input and output: the worker pool,
+ * the classpath hierarchy, the class cache and the in-flight budget. A
+ * single run opens its own context and closes it when done. The jobs of a
+ * {@link Batch} borrow the batch's context instead, so they share one pool,
+ * one budget, and every classpath lookup made by any of them.
+ * 
+ * @author Kenzie Togami
+ */
+final class TransformContext implements Closeable {
+
+    /**
+     * Opens a context for a single run.
+     * 
+     * @param config
+     *            - The transformer configuration
+     * @return A new context, to be closed after the run
+     */
+    static TransformContext open(TransformerConfig config) {
+        return new TransformContext(config, null);
+    }
+
+    /**
+     * Opens a context for a run, or borrows the shared one.
+     * 
+     * @param config
+     *            - The transformer configuration of the run
+     * @param shared
+     *            - The context of the batch the run is part of, may be
+     *            {@code null}
+     * @return A context to be closed after the run, which only closes what
+     *         it opened
+     */
+    static TransformContext of(TransformerConfig config,
+            TransformContext shared) {
+        return shared == null ? open(config) : new TransformContext(shared);
+    }
+
+    private final TransformerConfig config;
+    private final ExecutorService workers;
+    private final ImmutableSet<Path> classPathEntries;
+    private final ClassHierarchy classPath;
+    private final ClassCache cache;
+    private final InFlightBudget budget;
+    // sum of every job, only kept by a batch
+    private final TransformStats totals;
+    private final boolean owner;
+
+    /**
+     * @param config
+     *            - The configuration shared by every run
+     * @param totals
+     *            - Where the statistics of each run are summed up, may be
+     *            {@code null}
+     */
+    TransformContext(TransformerConfig config, TransformStats totals) {
+        int threads = config.getThreads();
+        this.config = config;
+        this.workers =
+                threads > 1 ? Workers.newPool(threads) : MoreExecutors
+                        .newDirectExecutorService();
+        this.classPathEntries = ImmutableSet.copyOf(config.getClassPath());
+        this.cache = ClassCache.open(config);
+        this.classPath =
+                ClassHierarchy.ofClassPath(config.getClassPath(), this.cache);
+        this.budget = new InFlightBudget(config.getMaxInFlightBytes());
+        this.totals = totals;
+        this.owner = true;
+    }
+
+    private TransformContext(TransformContext shared) {
+        this.config = shared.config;
+        this.workers = shared.workers;
+        this.classPathEntries = shared.classPathEntries;
+        this.classPath = shared.classPath;
+        this.cache = shared.cache;
+        this.budget = shared.budget;
+        this.totals = shared.totals;
+        this.owner = false;
+    }
+
+    /**
+     * @return The worker pool, running tasks on the calling thread when
+     *         configured for a single thread
+     */
+    ExecutorService getWorkers() {
+        return this.workers;
+    }
+
+    /**
+     * @return The class cache, may be {@code null}
+     */
+    ClassCache getCache() {
+        return this.cache;
+    }
+
+    /**
+     * @return The in-flight budget, which other runs may be holding some of
+     */
+    InFlightBudget getBudget() {
+        return this.budget;
+    }
+
+    /**
+     * Creates the classpath of a run. Entries the context already has are
+     * looked up in the context, so their lookups are shared.
+     * 
+     * @param config
+     *            - The transformer configuration of the run
+     * @return A new hierarchy, to be closed after the run
+     */
+    ClassHierarchy newClassPath(TransformerConfig config) {
+        List<Path> own =
+                config.getClassPath().stream()
+                        .filter(e -> !this.classPathEntries.contains(e))
+                        .collect(Collectors.toList());
+        return this.classPath.withClassPath(own, this.cache);
+    }
+
+    /**
+     * Reports a finished run, adding it to the batch totals if there are
+     * any.
+     * 
+     * @param processor
+     *            - The processor of the run
+     */
+    void report(ClassProcessor processor) {
+        processor.report();
+        if (this.totals != null) {
+            this.totals.addAll(processor.getStats());
+        }
+    }
+
+    /**
+     * Waits for the workers and closes the classpath and cache, if this
+     * context opened them. A borrowed context leaves them to the batch.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!this.owner) {
+            return;
+        }
+        try (Closer closer = Closer.create()) {
+            if (this.cache != null) {
+                closer.register(this.cache);
+            }
+            closer.register(this.classPath);
+            Pools.await(this.workers);
+        }
+    }
+
+}
@@ -0,0 +1,290 @@
+package com.techshroom.obf.methodup.transformer.impl;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Timings and counters for one transformer run. Updated from every worker,
+ * so everything here is either a {@link LongAdder} or guarded.
+ * 
+ * @author Kenzie Togami
+ */
+final class TransformStats {
+
+    /**
+     * The stages a class goes through. Phase times are summed over all
+     * workers, so they can add up to more than the wall time.
+     */
+    enum Phase {
+        /**
+         * Reading the class from the input.
+         */
+        READ,
+        /**
+         * Parsing the class and copying it to the writer.
+         */
+        PARSE,
+        /**
+         * Writing the decoys.
+         */
+        DECOY,
+        /**
+         * Computing stack map frames.
+         */
+        FRAMES,
+        /**
+         * Turning the writer into bytes.
+         */
+        SERIALIZE,
+        /**
+         * Compressing output jar entries.
+         */
+        COMPRESS,
+        /**
+         * Writing the class to the output.
+         */
+        WRITE;
+    }
+
+    /**
+     * A counted quantity.
+     */
+    enum Counter {
+        CLASSES, METHODS, DECOYS, DECOYS_SKIPPED, CACHE_HITS, EXCLUDED,
+        BYTES_IN, BYTES_OUT;
+    }
+
+    // how many classes the slowest and largest growth lists keep
+    private static final int TOP_COUNT = 10;
+
+    private static final class ClassTiming {
+
+        private final String name;
+        private final long nanos;
+        private final int bytesIn;
+        private final int bytesOut;
+
+        ClassTiming(String name, long nanos, int bytesIn, int bytesOut) {
+            this.name = name;
+            this.nanos = nanos;
+            this.bytesIn = bytesIn;
+            this.bytesOut = bytesOut;
+        }
+
+        int getGrowth() {
+            return this.bytesOut - this.bytesIn;
+        }
+
+    }
+
+    private final long start = System.nanoTime();
+    private final Map<Phase, LongAdder> phases = new EnumMap<>(Phase.class);
+    private final Map<Counter, LongAdder> counters =
+            new EnumMap<>(Counter.class);
+    // a min-heap, so the fastest of the slowest is the one to drop
+    private final PriorityQueue<ClassTiming> slowest = new PriorityQueue<>(
+            Comparator.comparingLong(t -> t.nanos));
+    private final PriorityQueue<ClassTiming> largestGrowth =
+            new PriorityQueue<>(Comparator.comparingInt(ClassTiming::getGrowth));
+
+    TransformStats() {
+        for (Phase phase : Phase.values()) {
+            this.phases.put(phase, new LongAdder());
+        }
+        for (Counter counter : Counter.values()) {
+            this.counters.put(counter, new LongAdder());
+        }
+    }
+
+    /**
+     * Adds time to a phase.
+     * 
+     * @param phase
+     *            - The phase
+     * @param nanos
+     *            - The time spent, from {@link System#nanoTime()}
+     */
+    void addTime(Phase phase, long nanos) {
+        this.phases.get(phase).add(nanos);
+    }
+
+    /**
+     * Adds to a counter.
+     * 
+     * @param counter
+     *            - The counter
+     * @param amount
+     *            - The amount to add
+     */
+    void add(Counter counter, long amount) {
+        this.counters.get(counter).add(amount);
+    }
+
+    /**
+     * Records a transformed class, for the slowest and largest growth
+     * classes lists.
+     * 
+     * @param name
+     *            - The class source name
+     * @param nanos
+     *            - The time spent on it
+     * @param bytesIn
+     *            - The size of the original class
+     * @param bytesOut
+     *            - The size of the transformed class
+     */
+    void addClass(String name, long nanos, int bytesIn, int bytesOut) {
+        add(Counter.CLASSES, 1);
+        add(Counter.BYTES_IN, bytesIn);
+        add(Counter.BYTES_OUT, bytesOut);
+        ClassTiming timing = new ClassTiming(name, nanos, bytesIn, bytesOut);
+        keepTop(this.slowest, timing);
+        keepTop(this.largestGrowth, timing);
+    }
+
+    private static void keepTop(PriorityQueue<ClassTiming> top,
+            ClassTiming timing) {
+        synchronized (top) {
+            if (top.size() == TOP_COUNT) {
+                if (top.comparator().compare(top.peek(), timing) >= 0) {
+                    return;
+                }
+                top.poll();
+            }
+            top.add(timing);
+        }
+    }
+
+    /**
+     * Adds everything recorded by other statistics to these, as when summing
+     * up the jobs of a batch. The wall time is left alone.
+     * 
+     * @param other
+     *            - The statistics to add
+     */
+    void addAll(TransformStats other) {
+        for (Phase phase : Phase.values()) {
+            addTime(phase, other.phases.get(phase).sum());
+        }
+        for (Counter counter : Counter.values()) {
+            add(counter, other.get(counter));
+        }
+        for (ClassTiming timing : sortedTop(other.slowest)) {
+            keepTop(this.slowest, timing);
+        }
+        for (ClassTiming timing : sortedTop(other.largestGrowth)) {
+            keepTop(this.largestGrowth, timing);
+        }
+    }
+
+    long get(Counter counter) {
+        return this.counters.get(counter).sum();
+    }
+
+    long getWallNanos() {
+        return System.nanoTime() - this.start;
+    }
+
+    /**
+     * Writes the statistics as JSON.
+     * 
+     * @param file
+     *            - The report file, replaced if it exists
+     * @throws IOException
+     *             if the file can't be written
+     */
+    void writeReport(Path file) throws IOException {
+        List<ClassTiming> slowest = sortedTop(this.slowest);
+        List<ClassTiming> largestGrowth = sortedTop(this.largestGrowth);
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("{\n");
+            out.write("  \"wallMillis\": " + millis(getWallNanos()) + ",\n");
+            for (Counter counter : Counter.values()) {
+                out.write("  \"" + camelCase(counter.name()) + "\": "
+                        + get(counter) + ",\n");
+            }
+            out.write("  \"phaseMillis\": {");
+            String separator = "\n";
+            for (Phase phase : Phase.values()) {
+                out.write(separator + "    \"" + camelCase(phase.name())
+                        + "\": " + millis(this.phases.get(phase).sum()));
+                separator = ",\n";
+            }
+            out.write("\n  },\n");
+            writeClasses(out, "slowest", slowest);
+            out.write(",\n");
+            writeClasses(out, "largestGrowth", largestGrowth);
+            out.write("\n}\n");
+        }
+    }
+
+    private static List<ClassTiming> sortedTop(PriorityQueue<ClassTiming> top) {
+        List<ClassTiming> sorted;
+        synchronized (top) {
+            sorted = new ArrayList<>(top);
+        }
+        sorted.sort(top.comparator().reversed());
+        return sorted;
+    }
+
+    private static void writeClasses(Writer out, String key,
+            List<ClassTiming> classes) throws IOException {
+        out.write("  \"" + key + "\": [");
+        String separator = "\n";
+        for (ClassTiming timing : classes) {
+            out.write(separator + "    { \"name\": " + quote(timing.name)
+                    + ", \"millis\": " + millis(timing.nanos)
+                    + ", \"bytesIn\": " + timing.bytesIn + ", \"bytesOut\": "
+                    + timing.bytesOut + ", \"growth\": " + timing.getGrowth()
+                    + " }");
+            separator = ",\n";
+        }
+        out.write(classes.isEmpty() ? "]" : "\n  ]");
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos
+                / (double) TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    private static String camelCase(String constant) {
+        StringBuilder result = new StringBuilder();
+        boolean upper = false;
+        for (char c : constant.toCharArray()) {
+            if (c == '_') {
+                upper = true;
+            } else {
+                result.append(upper ? c : Character.toLowerCase(c));
+                upper = false;
+            }
+        }
+        return result.toString();
+    }
+
+    private static String quote(String value) {
+        StringBuilder result = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                result.append('\\').append(c);
+            } else if (c < 0x20) {
+                result.append(String.format("\\u%04x", (int) c));
+            } else {
+                result.append(c);
+            }
+        }
+        return result.append('"').toString();
+    }
+
+}
@@ -1,8 +1,12 @@
 package com.techshroom.obf.methodup.transformer.impl;
 
 import java.nio.file.Path;
+import java.util.List;
 
+import com.techshroom.obf.methodup.transformer.ClassTransformer;
 import com.techshroom.obf.methodup.transformer.Transformer;
+import com.techshroom.obf.methodup.transformer.TransformerBatch;
+import com.techshroom.obf.methodup.transformer.TransformerConfig;
 import com.techshroom.obf.methodup.transformer.TransformerProvider;
 
 @SuppressWarnings("javadoc")
@@ -11,8 +15,43 @@ public enum TransformerProviderImpl implements TransformerProvider {
     INSTANCE;
 
     @Override
-    public Transformer getDirectoryTransformer(Path input, Path output) {
-        return new DirectoryTransformer(input, output);
+    public Transformer getDirectoryTransformer(Path input, Path output,
+            TransformerConfig config) {
+        return new DirectoryTransformer(input, output, config);
+    }
+
+    @Override
+    public Transformer getDirectoryWatcher(Path input, Path output,
+            TransformerConfig config) {
+        return new DirectoryTransformer(input, output, config)::watch;
+    }
+
+    @Override
+    public Transformer getDirectoryJarTransformer(Path input, Path output,
+            TransformerConfig config) {
+        return new ClassJarTransformer(input, null, output, config);
+    }
+
+    @Override
+    public Transformer getShardTransformer(Path input, List<String> classes,
+            Path output, TransformerConfig config) {
+        return new ClassJarTransformer(input, classes, output, config);
+    }
+
+    @Override
+    public Transformer getJarTransformer(Path input, Path output,
+            TransformerConfig config) {
+        return new JarTransformer(input, output, config);
+    }
+
+    @Override
+    public ClassTransformer getClassTransformer(TransformerConfig config) {
+        return new InMemoryTransformer(config);
+    }
+
+    @Override
+    public TransformerBatch openBatch(TransformerConfig config) {
+        return new Batch(config);
     }
 
 }
@@ -0,0 +1,56 @@
+package com.techshroom.obf.methodup.transformer.impl;
+
+import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Worker pool and failure helpers shared by the transformers.
+ * 
+ * @author Kenzie Togami
+ */
+final class Workers {
+
+    /**
+     * Creates a bounded pool of daemon workers. When the queue is full the
+     * submitting thread runs the task itself, so producers can't get too far
+     * ahead of the workers.
+     * 
+     * @param threads
+     *            - The worker count
+     * @return A new pool
+     */
+    static ExecutorService newPool(int threads) {
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(threads * 4),
+                new ThreadFactoryBuilder().setDaemon(true)
+                        .setNameFormat("transformer-%d").build(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Throws if any class failed, with every failure attached as suppressed.
+     * 
+     * @param failures
+     *            - The per-class failures
+     */
+    static void checkFailures(Collection<? extends Throwable> failures) {
+        if (failures.isEmpty()) {
+            return;
+        }
+        IllegalStateException ex =
+                new IllegalStateException(failures.size()
+                        + " class(es) failed to transform");
+        failures.forEach(ex::addSuppressed);
+        throw ex;
+    }
+
+    private Workers() {
+        throw new AssertionError();
+    }
+
+}
@@ -0,0 +1,135 @@
+package com.techshroom.obf.methodup.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A new ZIP entry, compressed and checksummed ahead of time so that a
+ * {@link RawZipWriter} only has to copy its bytes. Creating one is the
+ * expensive part, and is safe to do on any thread.
+ * 
+ * @author Kenzie Togami
+ */
+public final class CompressedEntry {
+
+    private static final int VERSION_STORED = 10;
+    private static final int VERSION_DEFLATED = 20;
+
+    /**
+     * Deflates an entry.
+     * 
+     * @param name
+     *            - The entry name
+     * @param data
+     *            - The uncompressed data
+     * @param dosTime
+     *            - The packed MS-DOS modification time, see
+     *            {@link RawZipEntry#toDosTime(long)}
+     * @param template
+     *            - An entry to take the extra field and comment from, may be
+     *            {@code null}
+     * @param level
+     *            - The deflate level, 0 to 9
+     * @return The compressed entry
+     */
+    public static CompressedEntry deflate(String name, byte[] data,
+            int dosTime, RawZipEntry template, int level) {
+        return new CompressedEntry(name, data, dosTime, template,
+                RawZipEntry.DEFLATED, deflate(data, level));
+    }
+
+    /**
+     * Stores an entry without compressing it.
+     * 
+     * @param name
+     *            - The entry name
+     * @param data
+     *            - The data, kept, not copied
+     * @param dosTime
+     *            - The packed MS-DOS modification time
+     * @param template
+     *            - An entry to take the extra field and comment from, may be
+     *            {@code null}
+     * @return The stored entry
+     */
+    public static CompressedEntry store(String name, byte[] data, int dosTime,
+            RawZipEntry template) {
+        return new CompressedEntry(name, data, dosTime, template,
+                RawZipEntry.STORED, data);
+    }
+
+    /**
+     * Deflates an entry, or stores it if deflating doesn't make it smaller.
+     * 
+     * @param name
+     *            - The entry name
+     * @param data
+     *            - The uncompressed data
+     * @param dosTime
+     *            - The packed MS-DOS modification time
+     * @param template
+     *            - An entry to take the extra field and comment from, may be
+     *            {@code null}
+     * @param level
+     *            - The deflate level, 0 to 9
+     * @return The smaller of the two entries
+     */
+    public static CompressedEntry smallest(String name, byte[] data,
+            int dosTime, RawZipEntry template, int level) {
+        byte[] compressed = deflate(data, level);
+        return compressed.length < data.length ? new CompressedEntry(name,
+                data, dosTime, template, RawZipEntry.DEFLATED, compressed)
+                                               : store(name, data, dosTime,
+                                                       template);
+    }
+
+    private static byte[] deflate(byte[] data, int level) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            byte[] buffer = new byte[Math.max(64, data.length / 2)];
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                length +=
+                        deflater.deflate(buffer, length, buffer.length
+                                - length);
+            }
+            return Arrays.copyOf(buffer, length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    final RawZipEntry entry;
+    final byte[] compressed;
+
+    private CompressedEntry(String name, byte[] data, int dosTime,
+            RawZipEntry template, int method, byte[] compressed) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        int version =
+                method == RawZipEntry.STORED ? VERSION_STORED
+                                             : VERSION_DEFLATED;
+        this.entry =
+                new RawZipEntry(name.getBytes(StandardCharsets.UTF_8),
+                        VERSION_DEFLATED, version, RawZipEntry.FLAG_UTF8,
+                        method, dosTime, crc.getValue(), compressed.length,
+                        data.length, template == null ? null : template.extra,
+                        template == null ? null : template.comment, 0, 0, 0);
+        this.compressed = compressed;
+    }
+
+    /**
+     * @return The entry as it will be recorded
+     */
+    public RawZipEntry getEntry() {
+        return this.entry;
+    }
+
+}
@@ -0,0 +1,40 @@
+package com.techshroom.obf.methodup.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Helpers for the thread pools that run transforms.
+ * 
+ * @author Kenzie Togami
+ */
+public final class Pools {
+
+    /**
+     * Shuts down the pool and waits for its tasks to finish, however long
+     * they take. If interrupted, the tasks are interrupted too.
+     * 
+     * @param pool
+     *            - The pool to wait on
+     * @throws IllegalStateException
+     *             if interrupted while waiting
+     */
+    public static void await(ExecutorService pool) {
+        pool.shutdown();
+        try {
+            while (!pool.awaitTermination(1, TimeUnit.MINUTES)) {
+                // keep waiting, large inputs take a while
+            }
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while transforming",
+                    e);
+        }
+    }
+
+    private Pools() {
+        throw new AssertionError();
+    }
+
+}
@@ -0,0 +1,162 @@
+package com.techshroom.obf.methodup.util;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * A ZIP entry as recorded in the central directory. The compressed bytes,
+ * CRC and sizes are kept exactly as they were, so the entry can be copied to
+ * another archive without inflating it.
+ * 
+ * @author Kenzie Togami
+ */
+public final class RawZipEntry {
+
+    /**
+     * Compression method for stored (uncompressed) entries.
+     */
+    public static final int STORED = 0;
+    /**
+     * Compression method for deflated entries.
+     */
+    public static final int DEFLATED = 8;
+
+    static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+    static final int FLAG_UTF8 = 0x0800;
+    private static final byte[] EMPTY = new byte[0];
+
+    /**
+     * Converts a Java timestamp to the MS-DOS date and time, packed as
+     * {@code date << 16 | time}.
+     * 
+     * @param millis
+     *            - Milliseconds since the epoch
+     * @return The packed DOS timestamp
+     */
+    public static int toDosTime(long millis) {
+        LocalDateTime time =
+                LocalDateTime.ofInstant(Instant.ofEpochMilli(millis),
+                                        ZoneId.systemDefault());
+        if (time.getYear() < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        int date =
+                ((time.getYear() - 1980) << 9) | (time.getMonthValue() << 5)
+                        | time.getDayOfMonth();
+        int clock =
+                (time.getHour() << 11) | (time.getMinute() << 5)
+                        | (time.getSecond() >> 1);
+        return (date << 16) | clock;
+    }
+
+    final byte[] nameBytes;
+    final int versionMadeBy;
+    final int versionNeeded;
+    final int flags;
+    final int method;
+    final int dosTime;
+    final long crc;
+    final long compressedSize;
+    final long size;
+    final byte[] extra;
+    final byte[] comment;
+    final int internalAttributes;
+    final long externalAttributes;
+    final long localHeaderOffset;
+    private final String name;
+    // filled in on first read, -1 until then
+    volatile long dataOffset = -1;
+
+    RawZipEntry(byte[] nameBytes, int versionMadeBy, int versionNeeded,
+            int flags, int method, int dosTime, long crc, long compressedSize,
+            long size, byte[] extra, byte[] comment, int internalAttributes,
+            long externalAttributes, long localHeaderOffset) {
+        this.nameBytes = nameBytes;
+        this.versionMadeBy = versionMadeBy;
+        this.versionNeeded = versionNeeded;
+        this.flags = flags;
+        this.method = method;
+        this.dosTime = dosTime;
+        this.crc = crc;
+        this.compressedSize = compressedSize;
+        this.size = size;
+        this.extra = extra == null ? EMPTY : extra;
+        this.comment = comment == null ? EMPTY : comment;
+        this.internalAttributes = internalAttributes;
+        this.externalAttributes = externalAttributes;
+        this.localHeaderOffset = localHeaderOffset;
+        this.name = new String(nameBytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return The entry name
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * @return {@code true} if this entry is a directory
+     */
+    public boolean isDirectory() {
+        return this.name.endsWith("/");
+    }
+
+    /**
+     * @return The compression method, {@link #STORED} or {@link #DEFLATED}
+     *         for entries this package can read
+     */
+    public int getMethod() {
+        return this.method;
+    }
+
+    /**
+     * @return The packed MS-DOS modification time
+     */
+    public int getDosTime() {
+        return this.dosTime;
+    }
+
+    /**
+     * @return The CRC-32 of the uncompressed data
+     */
+    public long getCrc() {
+        return this.crc;
+    }
+
+    /**
+     * @return The size of the compressed data
+     */
+    public long getCompressedSize() {
+        return this.compressedSize;
+    }
+
+    /**
+     * @return The size of the uncompressed data
+     */
+    public long getSize() {
+        return this.size;
+    }
+
+    /**
+     * @return The extra field, without any ZIP64 information
+     */
+    public byte[] getExtra() {
+        return this.extra.clone();
+    }
+
+    /**
+     * @return The entry comment bytes
+     */
+    public byte[] getComment() {
+        return this.comment.clone();
+    }
+
+    @Override
+    public String toString() {
+        return this.name;
+    }
+
+}
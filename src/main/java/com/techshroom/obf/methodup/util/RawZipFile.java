@@ -0,0 +1,452 @@
+package com.techshroom.obf.methodup.util;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Reads a ZIP archive at the record level. Entries can be read inflated, or
+ * their compressed bytes can be copied out untouched. Reads are positional,
+ * so one instance may be shared between threads.
+ * 
+ * @author Kenzie Togami
+ */
+public final class RawZipFile implements Closeable {
+
+    static final int LOCAL_HEADER_SIG = 0x04034b50;
+    static final int CENTRAL_HEADER_SIG = 0x02014b50;
+    static final int END_SIG = 0x06054b50;
+    static final int ZIP64_END_SIG = 0x06064b50;
+    static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+    static final int ZIP64_EXTRA_ID = 0x0001;
+    static final long MAX_32 = 0xFFFFFFFFL;
+    static final int MAX_16 = 0xFFFF;
+
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_SIZE = 22;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int ZIP64_END_SIZE = 56;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Removes any ZIP64 field from the given extra data, the writer adds its
+     * own where needed.
+     */
+    static byte[] stripZip64(byte[] extra) {
+        ByteBuffer in = ByteBuffer.wrap(extra).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer out = ByteBuffer.allocate(extra.length);
+        while (in.remaining() >= 4) {
+            int id = Short.toUnsignedInt(in.getShort());
+            int length = Short.toUnsignedInt(in.getShort());
+            if (length > in.remaining()) {
+                break;
+            }
+            if (id == ZIP64_EXTRA_ID) {
+                in.position(in.position() + length);
+                continue;
+            }
+            in.position(in.position() - 4);
+            for (int i = 0; i < 4 + length; i++) {
+                out.put(in.get());
+            }
+        }
+        byte[] result = new byte[out.position()];
+        out.flip();
+        out.get(result);
+        return result;
+    }
+
+    /**
+     * Opens the given archive memory-mapped, and reads its central directory.
+     * Reads copy straight out of the mapping instead of going through the
+     * file, which pays off for archives read from at random many times, such
+     * as classpath entries. Archives too large to map are read as usual.
+     * 
+     * @param path
+     *            - The archive to open
+     * @return The opened archive
+     * @throws IOException
+     *             if the archive can't be read
+     */
+    public static RawZipFile map(Path path) throws IOException {
+        return new RawZipFile(path, true, true);
+    }
+
+    /**
+     * Hashes the central directory of an archive, without reading or
+     * parsing anything else. The central directory holds the name, size and
+     * CRC of every entry, so the hash changes with the contents.
+     * 
+     * @param path
+     *            - The archive
+     * @return The CRC-32 of the central directory
+     * @throws IOException
+     *             if the archive can't be read
+     */
+    public static long hashCentralDirectory(Path path) throws IOException {
+        try (RawZipFile zip = new RawZipFile(path, false, false)) {
+            CRC32 crc = new CRC32();
+            crc.update(zip.readCentralDirectoryBytes());
+            return crc.getValue();
+        }
+    }
+
+    /**
+     * Hashes the end record of an archive, reading only the end of the file.
+     * The end record holds the size and offset of the central directory and
+     * the number of entries, so it is a cheap first check for changes, though
+     * not a reliable one, see {@link #hashCentralDirectory(Path)}.
+     * 
+     * @param path
+     *            - The archive
+     * @return The CRC-32 of the end record, and the archive comment
+     * @throws IOException
+     *             if the archive can't be read
+     */
+    public static long hashEndRecord(Path path) throws IOException {
+        try (RawZipFile zip = new RawZipFile(path, false, false)) {
+            CRC32 crc = new CRC32();
+            crc.update(zip.readEndRecord(zip.fileSize()));
+            return crc.getValue();
+        }
+    }
+
+    private final Path path;
+    private final FileChannel channel;
+    // the whole file when mapped, the channel is closed right away then
+    private final ByteBuffer mapped;
+    private final List<RawZipEntry> entries;
+
+    /**
+     * Opens the given archive and reads its central directory.
+     * 
+     * @param path
+     *            - The archive to open
+     * @throws IOException
+     *             if the archive can't be read
+     */
+    public RawZipFile(Path path) throws IOException {
+        this(path, false, true);
+    }
+
+    private RawZipFile(Path path, boolean map, boolean parse)
+            throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long size = this.channel.size();
+            this.mapped =
+                    map && size <= Integer.MAX_VALUE ? this.channel.map(
+                            FileChannel.MapMode.READ_ONLY, 0, size) : null;
+            this.entries =
+                    parse ? Collections.unmodifiableList(readCentralDirectory())
+                          : Collections.emptyList();
+        } catch (IOException | RuntimeException e) {
+            this.channel.close();
+            throw e;
+        }
+        if (this.mapped != null) {
+            // the mapping stays valid, and holds no descriptor
+            this.channel.close();
+        }
+    }
+
+    /**
+     * @return The path of this archive
+     */
+    public Path getPath() {
+        return this.path;
+    }
+
+    /**
+     * @return The entries, in central directory order
+     */
+    public List<RawZipEntry> entries() {
+        return this.entries;
+    }
+
+    /**
+     * Reads the uncompressed data of the given entry.
+     * 
+     * @param entry
+     *            - An entry of this archive
+     * @return The entry data
+     * @throws IOException
+     *             if the entry can't be read
+     */
+    public byte[] read(RawZipEntry entry) throws IOException {
+        byte[] raw = readRaw(entry);
+        if (entry.method == RawZipEntry.STORED) {
+            return raw;
+        }
+        if (entry.method != RawZipEntry.DEFLATED) {
+            throw new ZipException("unsupported compression method "
+                    + entry.method + " for " + entry.getName());
+        }
+        byte[] data = new byte[checkedSize(entry.size, entry)];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(raw);
+            int read = 0;
+            while (read < data.length) {
+                int count = inflater.inflate(data, read, data.length - read);
+                if (count == 0
+                        && (inflater.finished() || inflater.needsInput() || inflater
+                                .needsDictionary())) {
+                    throw new ZipException("truncated entry "
+                            + entry.getName());
+                }
+                read += count;
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException("corrupt entry " + entry.getName() + ": "
+                    + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+        return data;
+    }
+
+    /**
+     * Reads the compressed data of the given entry.
+     * 
+     * @param entry
+     *            - An entry of this archive
+     * @return The compressed entry data
+     * @throws IOException
+     *             if the entry can't be read
+     */
+    public byte[] readRaw(RawZipEntry entry) throws IOException {
+        ByteBuffer buffer =
+                ByteBuffer.allocate(checkedSize(entry.compressedSize, entry));
+        readFully(buffer, dataOffset(entry));
+        return buffer.array();
+    }
+
+    /**
+     * Copies the compressed data of the given entry to the stream.
+     * 
+     * @param entry
+     *            - An entry of this archive
+     * @param out
+     *            - Where to copy the data to
+     * @throws IOException
+     *             if the entry can't be copied
+     */
+    public void copyRaw(RawZipEntry entry, OutputStream out)
+            throws IOException {
+        long position = dataOffset(entry);
+        long remaining = entry.compressedSize;
+        ByteBuffer buffer =
+                ByteBuffer.allocate((int) Math.min(COPY_BUFFER_SIZE,
+                                                   Math.max(remaining, 1)));
+        while (remaining > 0) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), remaining));
+            readFully(buffer, position);
+            out.write(buffer.array(), 0, buffer.limit());
+            position += buffer.limit();
+            remaining -= buffer.limit();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    private static int checkedSize(long size, RawZipEntry entry)
+            throws ZipException {
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new ZipException(entry.getName()
+                    + " is too large to read into memory");
+        }
+        return (int) size;
+    }
+
+    private long dataOffset(RawZipEntry entry) throws IOException {
+        long offset = entry.dataOffset;
+        if (offset < 0) {
+            ByteBuffer header = readAt(entry.localHeaderOffset,
+                                       LOCAL_HEADER_SIZE);
+            if (header.getInt(0) != LOCAL_HEADER_SIG) {
+                throw new ZipException("bad local header for "
+                        + entry.getName());
+            }
+            offset =
+                    entry.localHeaderOffset + LOCAL_HEADER_SIZE
+                            + Short.toUnsignedInt(header.getShort(26))
+                            + Short.toUnsignedInt(header.getShort(28));
+            entry.dataOffset = offset;
+        }
+        return offset;
+    }
+
+    private List<RawZipEntry> readCentralDirectory() throws IOException {
+        ByteBuffer central = readCentralDirectoryBytes();
+        List<RawZipEntry> result = new ArrayList<>();
+        while (central.remaining() >= CENTRAL_HEADER_SIZE) {
+            result.add(readCentralHeader(central));
+        }
+        return result;
+    }
+
+    private ByteBuffer readCentralDirectoryBytes() throws IOException {
+        long fileSize = fileSize();
+        ByteBuffer endRecord = readEndRecord(fileSize);
+        long endPosition = fileSize - endRecord.remaining();
+        long centralSize = Integer.toUnsignedLong(endRecord.getInt(12));
+        long centralOffset = Integer.toUnsignedLong(endRecord.getInt(16));
+        int count = Short.toUnsignedInt(endRecord.getShort(10));
+        if (count == MAX_16 || centralSize == MAX_32
+                || centralOffset == MAX_32) {
+            ByteBuffer locator =
+                    readAt(endPosition - ZIP64_LOCATOR_SIZE,
+                           ZIP64_LOCATOR_SIZE);
+            if (locator.getInt(0) == ZIP64_LOCATOR_SIG) {
+                ByteBuffer zip64End = readAt(locator.getLong(8),
+                                             ZIP64_END_SIZE);
+                if (zip64End.getInt(0) != ZIP64_END_SIG) {
+                    throw new ZipException("bad zip64 end record in "
+                            + this.path);
+                }
+                centralSize = zip64End.getLong(40);
+                centralOffset = zip64End.getLong(48);
+            }
+        }
+        if (centralSize > Integer.MAX_VALUE) {
+            throw new ZipException("central directory of " + this.path
+                    + " is too large");
+        }
+        return readAt(centralOffset, (int) centralSize);
+    }
+
+    private long fileSize() throws IOException {
+        return this.mapped != null ? this.mapped.capacity() : this.channel
+                .size();
+    }
+
+    // the end record and the comment after it, which runs to the end
+    private ByteBuffer readEndRecord(long fileSize) throws IOException {
+        if (fileSize >= END_SIZE) {
+            // almost every archive has no comment, try that first
+            ByteBuffer end = readAt(fileSize - END_SIZE, END_SIZE);
+            if (end.getInt(0) == END_SIG && end.getShort(20) == 0) {
+                return end;
+            }
+        }
+        int tailSize = (int) Math.min(fileSize, END_SIZE + MAX_16);
+        ByteBuffer tail = readAt(fileSize - tailSize, tailSize);
+        for (int i = tailSize - END_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_SIG
+                    && i + END_SIZE + Short.toUnsignedInt(tail.getShort(i + 20)) == tailSize) {
+                tail.position(i);
+                return tail.slice().order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+        throw new ZipException(this.path + " is not a zip file");
+    }
+
+    private RawZipEntry readCentralHeader(ByteBuffer central)
+            throws ZipException {
+        int start = central.position();
+        if (central.getInt(start) != CENTRAL_HEADER_SIG) {
+            throw new ZipException("bad central header in " + this.path);
+        }
+        int nameLength = Short.toUnsignedInt(central.getShort(start + 28));
+        int extraLength = Short.toUnsignedInt(central.getShort(start + 30));
+        int commentLength = Short.toUnsignedInt(central.getShort(start + 32));
+        long compressedSize =
+                Integer.toUnsignedLong(central.getInt(start + 20));
+        long size = Integer.toUnsignedLong(central.getInt(start + 24));
+        long localOffset = Integer.toUnsignedLong(central.getInt(start + 42));
+        central.position(start + CENTRAL_HEADER_SIZE);
+        byte[] name = new byte[nameLength];
+        central.get(name);
+        byte[] extra = new byte[extraLength];
+        central.get(extra);
+        byte[] comment = new byte[commentLength];
+        central.get(comment);
+        if (size == MAX_32 || compressedSize == MAX_32
+                || localOffset == MAX_32) {
+            ByteBuffer fields =
+                    ByteBuffer.wrap(extra).order(ByteOrder.LITTLE_ENDIAN);
+            while (fields.remaining() >= 4) {
+                int id = Short.toUnsignedInt(fields.getShort());
+                int length = Short.toUnsignedInt(fields.getShort());
+                int next = fields.position() + length;
+                if (id == ZIP64_EXTRA_ID) {
+                    if (size == MAX_32) {
+                        size = fields.getLong();
+                    }
+                    if (compressedSize == MAX_32) {
+                        compressedSize = fields.getLong();
+                    }
+                    if (localOffset == MAX_32) {
+                        localOffset = fields.getLong();
+                    }
+                    break;
+                }
+                fields.position(Math.min(next, fields.limit()));
+            }
+        }
+        return new RawZipEntry(name,
+                Short.toUnsignedInt(central.getShort(start + 4)),
+                Short.toUnsignedInt(central.getShort(start + 6)),
+                Short.toUnsignedInt(central.getShort(start + 8)),
+                Short.toUnsignedInt(central.getShort(start + 10)),
+                (Short.toUnsignedInt(central.getShort(start + 14)) << 16)
+                        | Short.toUnsignedInt(central.getShort(start + 12)),
+                Integer.toUnsignedLong(central.getInt(start + 16)),
+                compressedSize, size, stripZip64(extra), comment,
+                Short.toUnsignedInt(central.getShort(start + 36)),
+                Integer.toUnsignedLong(central.getInt(start + 38)),
+                localOffset);
+    }
+
+    private ByteBuffer readAt(long position, int length) throws IOException {
+        ByteBuffer buffer =
+                ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(buffer, position);
+        buffer.flip();
+        return buffer;
+    }
+
+    private void readFully(ByteBuffer buffer, long position)
+            throws IOException {
+        if (this.mapped != null) {
+            if (position + buffer.remaining() > this.mapped.capacity()) {
+                throw new EOFException("unexpected end of " + this.path);
+            }
+            // a duplicate, so concurrent reads don't share a position
+            ByteBuffer source = this.mapped.duplicate();
+            source.position((int) position);
+            source.limit(source.position() + buffer.remaining());
+            buffer.put(source);
+            return;
+        }
+        long at = position;
+        while (buffer.hasRemaining()) {
+            int read = this.channel.read(buffer, at);
+            if (read < 0) {
+                throw new EOFException("unexpected end of " + this.path);
+            }
+            at += read;
+        }
+    }
+
+}
@@ -0,0 +1,246 @@
+package com.techshroom.obf.methodup.util;
+
+import static com.techshroom.obf.methodup.util.RawZipFile.MAX_16;
+import static com.techshroom.obf.methodup.util.RawZipFile.MAX_32;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes a ZIP archive at the record level. Entries from a
+ * {@link RawZipFile} are copied as their compressed bytes with the original
+ * CRC and sizes, new entries are compressed beforehand, as
+ * {@link CompressedEntry CompressedEntries}. ZIP64 records are added when the
+ * archive needs them.
+ * 
+ * @author Kenzie Togami
+ */
+public final class RawZipWriter implements Closeable {
+
+    private static final int VERSION_ZIP64 = 45;
+
+    private static final class Written {
+
+        private final RawZipEntry entry;
+        private final long offset;
+
+        Written(RawZipEntry entry, long offset) {
+            this.entry = entry;
+            this.offset = offset;
+        }
+
+    }
+
+    private final OutputStream out;
+    private final List<Written> written = new ArrayList<>();
+    private long position;
+    private boolean closed;
+
+    /**
+     * Creates a writer over the given stream. The stream is closed with this
+     * writer.
+     * 
+     * @param out
+     *            - The stream to write the archive to
+     */
+    public RawZipWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Copies an entry from another archive without recompressing it.
+     * 
+     * @param source
+     *            - The archive holding the entry
+     * @param entry
+     *            - The entry to copy
+     * @throws IOException
+     *             if the entry can't be copied
+     */
+    public void copyRaw(RawZipFile source, RawZipEntry entry)
+            throws IOException {
+        long offset = this.position;
+        writeLocalHeader(entry);
+        source.copyRaw(entry, new OutputStream() {
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                RawZipWriter.this.write(b, off, len);
+            }
+
+        });
+        this.written.add(new Written(entry, offset));
+    }
+
+    /**
+     * Writes an entry compressed ahead of time.
+     * 
+     * @param compressed
+     *            - The entry
+     * @throws IOException
+     *             if the entry can't be written
+     */
+    public void write(CompressedEntry compressed) throws IOException {
+        long offset = this.position;
+        writeLocalHeader(compressed.entry);
+        write(compressed.compressed, 0, compressed.compressed.length);
+        this.written.add(new Written(compressed.entry, offset));
+    }
+
+    /**
+     * Writes the central directory and closes the stream.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        try (OutputStream stream = this.out) {
+            long centralOffset = this.position;
+            for (Written entry : this.written) {
+                writeCentralHeader(entry);
+            }
+            writeEnd(centralOffset, this.position - centralOffset);
+            stream.flush();
+        }
+    }
+
+    private void writeLocalHeader(RawZipEntry entry) throws IOException {
+        boolean zip64 = entry.size >= MAX_32 || entry.compressedSize >= MAX_32;
+        int extraLength = entry.extra.length + (zip64 ? 20 : 0);
+        ByteBuffer header = newBuffer(30 + entry.nameBytes.length + extraLength);
+        header.putInt(RawZipFile.LOCAL_HEADER_SIG);
+        header.putShort((short) (zip64 ? Math.max(VERSION_ZIP64,
+                                                  entry.versionNeeded)
+                                      : entry.versionNeeded));
+        header.putShort((short) (entry.flags & ~RawZipEntry.FLAG_DATA_DESCRIPTOR));
+        header.putShort((short) entry.method);
+        header.putInt(entry.dosTime);
+        header.putInt((int) entry.crc);
+        header.putInt((int) (zip64 ? MAX_32 : entry.compressedSize));
+        header.putInt((int) (zip64 ? MAX_32 : entry.size));
+        header.putShort((short) entry.nameBytes.length);
+        header.putShort((short) extraLength);
+        header.put(entry.nameBytes);
+        if (zip64) {
+            header.putShort((short) RawZipFile.ZIP64_EXTRA_ID);
+            header.putShort((short) 16);
+            header.putLong(entry.size);
+            header.putLong(entry.compressedSize);
+        }
+        header.put(entry.extra);
+        write(header);
+    }
+
+    private void writeCentralHeader(Written written) throws IOException {
+        RawZipEntry entry = written.entry;
+        boolean bigSize = entry.size >= MAX_32;
+        boolean bigCompressed = entry.compressedSize >= MAX_32;
+        boolean bigOffset = written.offset >= MAX_32;
+        int zip64Length =
+                (bigSize ? 8 : 0) + (bigCompressed ? 8 : 0)
+                        + (bigOffset ? 8 : 0);
+        boolean zip64 = zip64Length > 0;
+        int extraLength = entry.extra.length + (zip64 ? 4 + zip64Length : 0);
+        ByteBuffer header =
+                newBuffer(46 + entry.nameBytes.length + extraLength
+                        + entry.comment.length);
+        header.putInt(RawZipFile.CENTRAL_HEADER_SIG);
+        header.putShort((short) entry.versionMadeBy);
+        header.putShort((short) (zip64 ? Math.max(VERSION_ZIP64,
+                                                  entry.versionNeeded)
+                                      : entry.versionNeeded));
+        header.putShort((short) (entry.flags & ~RawZipEntry.FLAG_DATA_DESCRIPTOR));
+        header.putShort((short) entry.method);
+        header.putInt(entry.dosTime);
+        header.putInt((int) entry.crc);
+        header.putInt((int) (bigCompressed ? MAX_32 : entry.compressedSize));
+        header.putInt((int) (bigSize ? MAX_32 : entry.size));
+        header.putShort((short) entry.nameBytes.length);
+        header.putShort((short) extraLength);
+        header.putShort((short) entry.comment.length);
+        header.putShort((short) 0);
+        header.putShort((short) entry.internalAttributes);
+        header.putInt((int) entry.externalAttributes);
+        header.putInt((int) (bigOffset ? MAX_32 : written.offset));
+        header.put(entry.nameBytes);
+        if (zip64) {
+            header.putShort((short) RawZipFile.ZIP64_EXTRA_ID);
+            header.putShort((short) zip64Length);
+            if (bigSize) {
+                header.putLong(entry.size);
+            }
+            if (bigCompressed) {
+                header.putLong(entry.compressedSize);
+            }
+            if (bigOffset) {
+                header.putLong(written.offset);
+            }
+        }
+        header.put(entry.extra);
+        header.put(entry.comment);
+        write(header);
+    }
+
+    private void writeEnd(long centralOffset, long centralSize)
+            throws IOException {
+        int count = this.written.size();
+        boolean zip64 =
+                count >= MAX_16 || centralOffset >= MAX_32
+                        || centralSize >= MAX_32;
+        if (zip64) {
+            long zip64EndOffset = this.position;
+            ByteBuffer end = newBuffer(56 + 20);
+            end.putInt(RawZipFile.ZIP64_END_SIG);
+            end.putLong(44);
+            end.putShort((short) VERSION_ZIP64);
+            end.putShort((short) VERSION_ZIP64);
+            end.putInt(0);
+            end.putInt(0);
+            end.putLong(count);
+            end.putLong(count);
+            end.putLong(centralSize);
+            end.putLong(centralOffset);
+            end.putInt(RawZipFile.ZIP64_LOCATOR_SIG);
+            end.putInt(0);
+            end.putLong(zip64EndOffset);
+            end.putInt(1);
+            write(end);
+        }
+        ByteBuffer end = newBuffer(22);
+        end.putInt(RawZipFile.END_SIG);
+        end.putShort((short) 0);
+        end.putShort((short) 0);
+        end.putShort((short) Math.min(count, MAX_16));
+        end.putShort((short) Math.min(count, MAX_16));
+        end.putInt((int) Math.min(centralSize, MAX_32));
+        end.putInt((int) Math.min(centralOffset, MAX_32));
+        end.putShort((short) 0);
+        write(end);
+    }
+
+    private static ByteBuffer newBuffer(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        write(buffer.array(), 0, buffer.position());
+    }
+
+    private void write(byte[] b, int off, int len) throws IOException {
+        this.out.write(b, off, len);
+        this.position += len;
+    }
+
+}
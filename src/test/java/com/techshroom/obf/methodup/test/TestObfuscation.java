@@ -1,20 +1,63 @@
 package com.techshroom.obf.methodup.test;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ProcessBuilder.Redirect;
+import java.lang.reflect.Method;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
 
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import com.techshroom.obf.methodup.Agent;
 import com.techshroom.obf.methodup.Main;
+import com.techshroom.obf.methodup.test.hierarchy.HierarchyClass;
 import com.techshroom.obf.methodup.test.testcases.BasicOneMethodClass;
+import com.techshroom.obf.methodup.test.testcases.BridgeMethodClass;
+import com.techshroom.obf.methodup.test.testcases.DeprecatedThrowingClass;
+import com.techshroom.obf.methodup.transformer.ClassPass;
+import com.techshroom.obf.methodup.transformer.ClassTransformer;
+import com.techshroom.obf.methodup.transformer.TransformerConfig;
+import com.techshroom.obf.methodup.transformer.impl.TransformerProviderImpl;
 import com.techshroom.obf.methodup.util.DestructionVisitor;
 
 @SuppressWarnings("javadoc")
@@ -67,7 +110,7 @@ public class TestObfuscation {
 
     @Test
     public void oneMethodClass() throws Exception {
-        Main.main(this.loadedPath
+        Main.run(this.loadedPath
                           .resolve("com/techshroom/obf/methodup/test/testcases")
                           .toAbsolutePath().toString(),
                   "src/test/resources/testcases");
@@ -77,12 +120,748 @@ public class TestObfuscation {
     }
 
     @Test
-    public void oneMethodClassJar() throws Exception {
-        Main.main(this.loadedPath
+    public void oneMethodClassPreservingFrames() throws Exception {
+        Main.run("--preserve-frames",
+                  this.loadedPath
                           .resolve("com/techshroom/obf/methodup/test/testcases")
                           .toAbsolutePath().toString(),
-                  this.testcases.resolve("test.jar").toAbsolutePath()
-                          .toString());
+                  "src/test/resources/testcases");
+        Class<?> clazz = getClass(BasicOneMethodClass.class.getName());
+        clazz.getMethod("main", String[].class)
+                .invoke(null, (Object) new String[] {});
+    }
+
+    @Test
+    public void bridgeMethodClass() throws Exception {
+        // get()String and its get()Object bridge want the same decoy
+        Path output = this.testcases.resolve("bridge");
+        Main.run(this.loadedPath.toAbsolutePath().toString(),
+                  output.toString());
+        try (URLClassLoader loader =
+                new URLClassLoader(new URL[] { output.toUri().toURL() }, null)) {
+            loader.loadClass(BridgeMethodClass.class.getName())
+                    .getMethod("main", String[].class)
+                    .invoke(null, (Object) new String[] {});
+        }
+    }
+
+    @Test
+    public void oneMethodClassJar() throws Exception {
+        Path input =
+                this.loadedPath
+                        .resolve("com/techshroom/obf/methodup/test/testcases");
+        Path jar = this.testcases.resolve("test.jar");
+        Main.run(input.toAbsolutePath().toString(), jar.toAbsolutePath()
+                .toString());
+        try (ZipFile zip = new ZipFile(jar.toFile())) {
+            assertEquals(listFiles(input).stream().map(Path::toString)
+                                 .collect(Collectors.toList()),
+                         zip.stream().map(ZipEntry::getName).sorted()
+                                 .collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    public void jarOutputMatchesDirectory() throws Exception {
+        Path input = inputWithResource();
+        Path directory = this.testcases.resolve("directory");
+        Main.run(input.toString(), directory.toString());
+        List<Path> files = listFiles(directory);
+        assertTrue(files.toString(),
+                   files.contains(Paths.get("resource.txt")));
+        Map<String, List<String>> modes = new LinkedHashMap<>();
+        modes.put("deflate", ImmutableList.of());
+        modes.put("store", ImmutableList.of("--compression", "store"));
+        modes.put("smallest", ImmutableList.of("--compression", "smallest"));
+        // only stored blocks, larger than the data
+        modes.put("level0", ImmutableList.of("--compression-level", "0"));
+        for (Map.Entry<String, List<String>> mode : modes.entrySet()) {
+            Path jar = this.testcases.resolve(mode.getKey() + ".jar");
+            List<String> args = new ArrayList<>(mode.getValue());
+            args.add(input.toString());
+            args.add(jar.toString());
+            Main.run(args.toArray(new String[args.size()]));
+            try (ZipFile zip = new ZipFile(jar.toFile())) {
+                assertEquals(mode.getKey(), files.size(), zip.size());
+                for (Path file : files) {
+                    String name =
+                            file.toString().replace(File.separatorChar, '/');
+                    ZipEntry entry = zip.getEntry(name);
+                    assertTrue(mode.getKey() + " " + name, entry != null);
+                    try (InputStream data = zip.getInputStream(entry)) {
+                        assertArrayEquals(mode.getKey() + " " + name,
+                                          Files.readAllBytes(directory
+                                                  .resolve(file)),
+                                          ByteStreams.toByteArray(data));
+                    }
+                    int method = entry.getMethod();
+                    long size = entry.getSize();
+                    long compressed = entry.getCompressedSize();
+                    switch (mode.getKey()) {
+                        case "deflate":
+                            assertEquals(name, ZipEntry.DEFLATED, method);
+                            break;
+                        case "store":
+                            assertEquals(name, ZipEntry.STORED, method);
+                            break;
+                        case "smallest":
+                            assertTrue(name, compressed <= size);
+                            break;
+                        case "level0":
+                            assertEquals(name, ZipEntry.DEFLATED, method);
+                            assertTrue(name, compressed > size);
+                            break;
+                        default:
+                            throw new AssertionError(mode.getKey());
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void jarToJar() throws Exception {
+        Path inputJar = this.testcases.resolve("in.jar");
+        Path outputJar = this.testcases.resolve("out.jar");
+        String className = BasicOneMethodClass.class.getName();
+        String classEntry = className.replace('.', '/') + ".class";
+        try (JarOutputStream out =
+                new JarOutputStream(Files.newOutputStream(inputJar))) {
+            out.putNextEntry(new JarEntry(classEntry));
+            out.write(Files.readAllBytes(this.loadedPath.resolve(classEntry)));
+            out.closeEntry();
+            out.putNextEntry(new JarEntry("resource.txt"));
+            out.write("resource".getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+        }
+        Main.run(inputJar.toString(), outputJar.toString());
+        try (ZipFile in = new ZipFile(inputJar.toFile());
+                ZipFile out = new ZipFile(outputJar.toFile())) {
+            // resources are copied without recompressing
+            ZipEntry before = in.getEntry("resource.txt");
+            ZipEntry after = out.getEntry("resource.txt");
+            assertEquals(before.getCrc(), after.getCrc());
+            assertEquals(before.getCompressedSize(), after.getCompressedSize());
+        }
+        try (URLClassLoader loader =
+                new URLClassLoader(new URL[] { outputJar.toUri().toURL() },
+                        null)) {
+            loader.loadClass(className).getMethod("main", String[].class)
+                    .invoke(null, (Object) new String[] {});
+            try (InputStream resource =
+                    loader.getResourceAsStream("resource.txt")) {
+                assertArrayEquals("resource".getBytes(StandardCharsets.UTF_8),
+                                  ByteStreams.toByteArray(resource));
+            }
+        }
+    }
+
+    @Test
+    public void parallelMatchesSerial() throws Exception {
+        Path serial = this.testcases.resolve("serial");
+        Path parallel = this.testcases.resolve("parallel");
+        Main.run(this.loadedPath.toAbsolutePath().toString(),
+                  serial.toString());
+        Main.run("--threads", "4", this.loadedPath.toAbsolutePath()
+                .toString(), parallel.toString());
+        List<Path> classes = listFiles(serial);
+        assertEquals(classes, listFiles(parallel));
+        for (Path clazz : classes) {
+            assertArrayEquals(clazz.toString(),
+                              Files.readAllBytes(serial.resolve(clazz)),
+                              Files.readAllBytes(parallel.resolve(clazz)));
+        }
+    }
+
+    @Test
+    public void shardedMatchesSerial() throws Exception {
+        Path input = inputWithResource();
+        Path jar = this.testcases.resolve("input.jar");
+        writeJar(input, jar);
+        // a directory and a jar, each into a directory and a jar, resources
+        // included
+        for (Path source : ImmutableList.of(input, jar)) {
+            Path serial = this.testcases.resolve("serial");
+            Path sharded = this.testcases.resolve("sharded");
+            Main.run(source.toString(), serial.toString());
+            Main.run("--shards", "2", source.toString(), sharded.toString());
+            List<Path> files = listFiles(serial);
+            assertTrue(files.toString(),
+                       files.contains(Paths.get("resource.txt")));
+            assertEquals(files, listFiles(sharded));
+            for (Path file : files) {
+                assertArrayEquals(file.toString(),
+                                  Files.readAllBytes(serial.resolve(file)),
+                                  Files.readAllBytes(sharded.resolve(file)));
+            }
+            Files.walkFileTree(serial, new DestructionVisitor());
+            Files.walkFileTree(sharded, new DestructionVisitor());
+
+            Path serialJar = this.testcases.resolve("serial.jar");
+            Path shardedJar = this.testcases.resolve("sharded.jar");
+            Main.run(source.toString(), serialJar.toString());
+            Main.run("--shards", "2", source.toString(),
+                     shardedJar.toString());
+            try (ZipFile expected = new ZipFile(serialJar.toFile());
+                    ZipFile actual = new ZipFile(shardedJar.toFile())) {
+                List<String> names =
+                        expected.stream().map(ZipEntry::getName)
+                                .collect(Collectors.toList());
+                assertTrue(names.toString(), names.contains("resource.txt"));
+                // in the same order, entry times may differ
+                assertEquals(names, actual.stream().map(ZipEntry::getName)
+                        .collect(Collectors.toList()));
+                for (String name : names) {
+                    ZipEntry before = expected.getEntry(name);
+                    ZipEntry after = actual.getEntry(name);
+                    assertEquals(name, before.getMethod(), after.getMethod());
+                    assertEquals(name, before.getCrc(), after.getCrc());
+                    assertEquals(name, before.getCompressedSize(),
+                                 after.getCompressedSize());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void batchMatchesSerial() throws Exception {
+        Path serial = this.testcases.resolve("serial");
+        Path manifest = this.testcases.resolve("batch.txt");
+        String input = this.loadedPath.toAbsolutePath().toString();
+        Main.run(input, serial.toString());
+        Files.write(manifest, ImmutableList.of("# two jobs, one classpath",
+                                               input + " batch1",
+                                               input + " batch2"));
+        Main.run("--batch", manifest.toString(), "--threads", "2");
+        List<Path> classes = listFiles(serial);
+        for (String output : ImmutableList.of("batch1", "batch2")) {
+            Path batch = this.testcases.resolve(output);
+            assertEquals(classes, listFiles(batch));
+            for (Path clazz : classes) {
+                assertArrayEquals(clazz.toString(),
+                                  Files.readAllBytes(serial.resolve(clazz)),
+                                  Files.readAllBytes(batch.resolve(clazz)));
+            }
+        }
+    }
+
+    @Test
+    public void daemonMatchesSerial() throws Exception {
+        Path serial = this.testcases.resolve("serial");
+        Path stateFile = this.testcases.resolve("daemon.properties");
+        String input = this.loadedPath.toAbsolutePath().toString();
+        Main.run(input, serial.toString());
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread daemon = new Thread(() -> {
+            try {
+                Main.run("--daemon", "--daemon-file", stateFile.toString());
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        }, "daemon");
+        daemon.start();
+        try {
+            while (!Files.exists(stateFile)) {
+                assertTrue("the daemon died", daemon.isAlive());
+                Thread.sleep(10);
+            }
+            List<Path> classes = listFiles(serial);
+            // the second job runs on what the first one warmed up
+            for (String output : ImmutableList.of("remote1", "remote2")) {
+                Path remote = this.testcases.resolve(output);
+                Main.run("--remote", "--daemon-file", stateFile.toString(),
+                         input, remote.toString());
+                assertEquals(classes, listFiles(remote));
+                for (Path clazz : classes) {
+                    assertArrayEquals(clazz.toString(),
+                                      Files.readAllBytes(serial
+                                              .resolve(clazz)),
+                                      Files.readAllBytes(remote
+                                              .resolve(clazz)));
+                }
+            }
+        } finally {
+            Main.run("--stop-daemon", "--daemon-file", stateFile.toString());
+            daemon.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError("the daemon failed", failure.get());
+        }
+        assertTrue(!Files.exists(stateFile));
+    }
+
+    @Test
+    public void watchFollowsChanges() throws Exception {
+        Path input = inputWithResource();
+        Path serial = this.testcases.resolve("serial");
+        Path watched = this.testcases.resolve("watched");
+        Main.run(input.toString(), serial.toString());
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread watcher = new Thread(() -> {
+            try {
+                Main.run("--watch", input.toString(), watched.toString());
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        }, "watcher");
+        watcher.start();
+        try {
+            Path packageDir =
+                    Paths.get(BasicOneMethodClass.class.getPackage()
+                            .getName().replace('.', File.separatorChar));
+            Path added = Paths.get("added.txt");
+            awaitSameFiles(serial, watched);
+            // a new file, then a whole package gone and back again
+            Files.write(input.resolve(added),
+                        "added".getBytes(StandardCharsets.UTF_8));
+            await(() -> Files.exists(watched.resolve(added)));
+            Files.walkFileTree(input.resolve(packageDir),
+                               new DestructionVisitor());
+            await(() -> !Files.exists(watched.resolve(packageDir)));
+            Path original = this.loadedPath.resolve(packageDir);
+            for (Path file : listFiles(original)) {
+                Path target = input.resolve(packageDir).resolve(file);
+                Files.createDirectories(target.getParent());
+                Files.copy(original.resolve(file), target);
+            }
+            Files.copy(input.resolve(added), serial.resolve(added));
+            awaitSameFiles(serial, watched);
+        } finally {
+            watcher.interrupt();
+            watcher.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError("the watcher failed", failure.get());
+        }
+    }
+
+    @Test
+    public void cachedMatchesUncached() throws Exception {
+        Path cache = this.testcases.resolve("cache");
+        Path uncached = this.testcases.resolve("uncached");
+        Path cold = this.testcases.resolve("cold");
+        Path warm = this.testcases.resolve("warm");
+        String input = this.loadedPath.toAbsolutePath().toString();
+        Main.run(input, uncached.toString());
+        Main.run("--cache", cache.toString(), input, cold.toString());
+        Main.run("--cache", cache.toString(), input, warm.toString());
+        List<Path> classes = listFiles(uncached);
+        assertEquals(classes.size() + 1, listFiles(cache).size());
+        for (Path clazz : classes) {
+            byte[] expected = Files.readAllBytes(uncached.resolve(clazz));
+            assertArrayEquals(clazz.toString(), expected,
+                              Files.readAllBytes(cold.resolve(clazz)));
+            assertArrayEquals(clazz.toString(), expected,
+                              Files.readAllBytes(warm.resolve(clazz)));
+        }
+    }
+
+    @Test
+    public void classPathIsSearchedLazily() throws Exception {
+        // only the class itself is transformed, its super types are on the
+        // classpath
+        Path input = this.testcases.resolve("hierarchy");
+        Path libraries = this.testcases.resolve("libraries");
+        Path classPathJar = this.testcases.resolve("classpath.jar");
+        Path output = this.testcases.resolve("lazy");
+        copyHierarchyClasses(input, libraries);
+        writeJar(libraries, classPathJar);
+        // never needed, so never opened
+        Path broken = this.testcases.resolve("broken.jar");
+        Files.write(broken, "not a zip".getBytes(StandardCharsets.UTF_8));
+        Main.run("-cp", Joiner.on(File.pathSeparator).join(
+                this.testcases.resolve("missing.jar"), classPathJar, broken),
+                 input.toString(), output.toString());
+        runHierarchyClass(output, classPathJar);
+    }
+
+    @Test
+    public void hierarchyIndexFollowsClassPath() throws Exception {
+        Path input = this.testcases.resolve("hierarchy");
+        Path libraries = this.testcases.resolve("libraries");
+        Path classPathJar = this.testcases.resolve("classpath.jar");
+        Path cache = this.testcases.resolve("cache");
+        copyHierarchyClasses(input, libraries);
+        Files.write(libraries.resolve("pad-a.txt"),
+                    "pad".getBytes(StandardCharsets.UTF_8));
+        writeJar(libraries, classPathJar);
+        long size = Files.size(classPathJar);
+        FileTime modified = Files.getLastModifiedTime(classPathJar);
+        Path cold = this.testcases.resolve("cold");
+        Main.run("--cache", cache.toString(), "-cp", classPathJar.toString(),
+                 input.toString(), cold.toString());
+        List<Path> indexes = listFiles(cache.resolve("hierarchy"));
+        assertEquals(1, indexes.size());
+        Path index = cache.resolve("hierarchy").resolve(indexes.get(0));
+        byte[] built = Files.readAllBytes(index);
+        runHierarchyClass(cold, classPathJar);
+
+        // touched, the central directory shows the classes are the same
+        FileTime touched = FileTime.fromMillis(modified.toMillis() + 60_000);
+        Files.setLastModifiedTime(classPathJar, touched);
+        Main.run("--cache", cache.toString(), "-cp", classPathJar.toString(),
+                 input.toString(), this.testcases.resolve("touched")
+                         .toString());
+        byte[] kept = Files.readAllBytes(index);
+        assertTrue("the index wasn't updated", !Arrays.equals(built, kept));
+        // the header up to the modification time is all that changed
+        assertArrayEquals(Arrays.copyOfRange(built, 20, built.length),
+                          Arrays.copyOfRange(kept, 20, kept.length));
+
+        // same size, time and end record, the central directory isn't read
+        Files.move(libraries.resolve("pad-a.txt"),
+                   libraries.resolve("pad-b.txt"));
+        writeJar(libraries, classPathJar);
+        assertEquals(size, Files.size(classPathJar));
+        Files.setLastModifiedTime(classPathJar, touched);
+        Main.run("--cache", cache.toString(), "-cp", classPathJar.toString(),
+                 input.toString(), this.testcases.resolve("unread")
+                         .toString());
+        assertArrayEquals(kept, Files.readAllBytes(index));
+
+        // a new time, and the central directory differs this time
+        Files.setLastModifiedTime(classPathJar, modified);
+        Path warm = this.testcases.resolve("warm");
+        Main.run("--cache", cache.toString(), "-cp", classPathJar.toString(),
+                 input.toString(), warm.toString());
+        assertEquals(indexes, listFiles(cache.resolve("hierarchy")));
+        byte[] rebuilt = Files.readAllBytes(index);
+        assertTrue("the index wasn't rebuilt",
+                   !Arrays.equals(Arrays.copyOfRange(built, 20, built.length),
+                                  Arrays.copyOfRange(rebuilt, 20,
+                                                     rebuilt.length)));
+        runHierarchyClass(warm, classPathJar);
+
+        // every class is a hit, only the index is written, and that evicts
+        Files.setLastModifiedTime(classPathJar, touched);
+        Path evicted = this.testcases.resolve("evicted");
+        Files.createDirectories(evicted);
+        TransformerProviderImpl.INSTANCE
+                .getDirectoryTransformer(input, evicted,
+                                         TransformerConfig.builder()
+                                                 .cacheDirectory(cache)
+                                                 .maxCacheSize(1)
+                                                 .classPath(ImmutableList
+                                                         .of(classPathJar))
+                                                 .build())
+                .transform();
+        assertEquals(ImmutableList.of(), listFiles(cache.resolve("hierarchy")));
+    }
+
+    @Test
+    public void reportCountsClasses() throws Exception {
+        Path report = this.testcases.resolve("report.json");
+        Path output = this.testcases.resolve("reported");
+        Main.run("--report", report.toString(), this.loadedPath
+                .toAbsolutePath().toString(), output.toString());
+        String json =
+                new String(Files.readAllBytes(report), StandardCharsets.UTF_8);
+        assertTrue(json, json.contains("\"classes\": "
+                + listFiles(output).size() + ","));
+        assertTrue(json, json.contains("\"slowest\": [\n    { \"name\": "));
+    }
+
+    @Test
+    public void passesRunBeforeDecoys() throws Exception {
+        // renames every main, the decoy must follow the new name
+        ClassPass rename =
+                next -> new ClassVisitor(Opcodes.ASM5, next) {
+
+                    @Override
+                    public MethodVisitor visitMethod(int access, String name,
+                            String desc, String signature, String[] exceptions) {
+                        return super.visitMethod(access,
+                                                 name.equals("main") ? "renamed"
+                                                                     : name,
+                                                 desc,
+                                                 signature,
+                                                 exceptions);
+                    }
+
+                };
+        Path output = this.testcases.resolve("passes");
+        Files.createDirectories(output);
+        TransformerProviderImpl.INSTANCE
+                .getDirectoryTransformer(this.loadedPath, output,
+                                         TransformerConfig.builder()
+                                                 .addPass(rename).build())
+                .transform();
+        List<String> methods;
+        try (URLClassLoader loader =
+                new URLClassLoader(new URL[] { output.toUri().toURL() }, null)) {
+            methods =
+                    Stream.of(loader.loadClass(BasicOneMethodClass.class
+                                      .getName()).getDeclaredMethods())
+                            .map(Method::getName)
+                            .collect(Collectors.toList());
+        }
+        assertEquals(ImmutableList.of("renamed", "renamed"), methods);
+    }
+
+    @Test
+    public void inMemoryMatchesDirectory() throws Exception {
+        Path output = this.testcases.resolve("directory");
+        Main.run(this.loadedPath.toAbsolutePath().toString(),
+                  output.toString());
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        for (Path clazz : listFiles(this.loadedPath)) {
+            String name = clazz.toString().replace(File.separatorChar, '/');
+            if (name.endsWith(".class")) {
+                classes.put(name.substring(0, name.length()
+                                    - ".class".length()),
+                            Files.readAllBytes(this.loadedPath.resolve(clazz)));
+            }
+        }
+        String single =
+                BasicOneMethodClass.class.getName().replace('.', '/');
+        Map<String, byte[]> transformed;
+        byte[] transformedSingle;
+        try (ClassTransformer transformer =
+                TransformerProviderImpl.INSTANCE
+                        .getClassTransformer(TransformerConfig.builder()
+                                .threads(4).build())) {
+            transformed = transformer.transformAll(classes);
+            transformedSingle =
+                    transformer.transform(ByteBuffer.wrap(classes
+                            .get(single)));
+        }
+        assertEquals(classes.keySet(), transformed.keySet());
+        for (String name : classes.keySet()) {
+            assertArrayEquals(name,
+                              Files.readAllBytes(output.resolve(name
+                                      + ".class")), transformed.get(name));
+        }
+        assertArrayEquals(transformed.get(single), transformedSingle);
+    }
+
+    @Test
+    public void agentAddsDecoysOnLoad() throws Exception {
+        // the agent leaves its own packages alone, so use a fresh one
+        Path classes = this.testcases.resolve("agentcase");
+        Path probe = classes.resolve("agentcase/Probe.class");
+        Files.createDirectories(probe.getParent());
+        Files.write(probe, generateProbe("agentcase/Probe"));
+        Path agent = this.testcases.resolve("agent.jar");
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION,
+                                         "1.0");
+        manifest.getMainAttributes().putValue("Premain-Class",
+                                              Agent.class.getName());
+        new JarOutputStream(Files.newOutputStream(agent), manifest).close();
+        Process child =
+                new ProcessBuilder(Paths.get(System.getProperty("java.home"),
+                                             "bin", "java").toString(),
+                        "-javaagent:" + agent.toAbsolutePath(), "-cp",
+                        System.getProperty("java.class.path")
+                                + File.pathSeparator
+                                + classes.toAbsolutePath(),
+                        "agentcase.Probe").redirectError(Redirect.INHERIT)
+                        .start();
+        String methods;
+        try (InputStream out = child.getInputStream()) {
+            methods =
+                    new String(ByteStreams.toByteArray(out),
+                            StandardCharsets.UTF_8).trim();
+        }
+        assertEquals(0, child.waitFor());
+        // main and its decoy
+        assertEquals("2", methods);
+    }
+
+    @Test
+    public void excludedClassesAreCopied() throws Exception {
+        Path output = this.testcases.resolve("excluded");
+        String excluded = BridgeMethodClass.class.getName();
+        Main.run(this.loadedPath.toAbsolutePath().toString(),
+                  output.toString(), "--exclude", excluded);
+        String path = excluded.replace('.', '/') + ".class";
+        assertArrayEquals(Files.readAllBytes(this.loadedPath.resolve(path)),
+                          Files.readAllBytes(output.resolve(path)));
+        String transformed =
+                BasicOneMethodClass.class.getName().replace('.', '/')
+                        + ".class";
+        assertTrue(!Arrays.equals(Files.readAllBytes(this.loadedPath
+                .resolve(transformed)), Files.readAllBytes(output
+                .resolve(transformed))));
+    }
+
+    @Test
+    public void leanDecoysAndGrowthLimit() throws Exception {
+        Path full = this.testcases.resolve("full");
+        Path lean = this.testcases.resolve("lean");
+        Path limited = this.testcases.resolve("limited");
+        String input = this.loadedPath.toAbsolutePath().toString();
+        Main.run(input, full.toString());
+        Main.run("--lean-decoys", input, lean.toString());
+        // not even room for one decoy
+        Main.run("--max-class-growth", "8", input, limited.toString());
+        String className = DeprecatedThrowingClass.class.getName();
+        String path = className.replace('.', '/') + ".class";
+        // the decoy of read() throws IOException
+        Map<String, Integer> fullAccess = new LinkedHashMap<>();
+        Map<String, List<String>> fullExceptions = new LinkedHashMap<>();
+        readMethods(full.resolve(path), fullAccess, fullExceptions);
+        Map<String, Integer> leanAccess = new LinkedHashMap<>();
+        Map<String, List<String>> leanExceptions = new LinkedHashMap<>();
+        readMethods(lean.resolve(path), leanAccess, leanExceptions);
+        String decoy = "read()V";
+        assertEquals(fullAccess.keySet(), leanAccess.keySet());
+        assertEquals(ImmutableList.of("java/io/IOException"),
+                     fullExceptions.get(decoy));
+        assertTrue((fullAccess.get(decoy) & Opcodes.ACC_DEPRECATED) != 0);
+        assertEquals(ImmutableList.of(), leanExceptions.get(decoy));
+        assertEquals(0, leanAccess.get(decoy) & Opcodes.ACC_DEPRECATED);
+        assertTrue(Files.size(lean.resolve(path)) < Files.size(full
+                .resolve(path)));
+        try (URLClassLoader leanLoader =
+                new URLClassLoader(new URL[] { lean.toUri().toURL() }, null);
+                URLClassLoader limitedLoader =
+                        new URLClassLoader(new URL[] { limited.toUri()
+                                .toURL() }, null)) {
+            Class<?> leanClass = leanLoader.loadClass(className);
+            assertEquals(4, leanClass.getDeclaredMethods().length);
+            leanClass.getMethod("main", String[].class)
+                    .invoke(null, (Object) new String[] {});
+            assertEquals(2, limitedLoader.loadClass(className)
+                    .getDeclaredMethods().length);
+        }
+    }
+
+    // name and descriptor of each method to its access and exceptions
+    private static void readMethods(Path classFile,
+            Map<String, Integer> access, Map<String, List<String>> exceptions)
+            throws IOException {
+        new ClassReader(Files.readAllBytes(classFile))
+                .accept(new ClassVisitor(Opcodes.ASM5) {
+
+                    @Override
+                    public MethodVisitor visitMethod(int methodAccess,
+                            String name, String desc, String signature,
+                            String[] thrown) {
+                        access.put(name + desc, methodAccess);
+                        exceptions.put(name + desc, thrown == null
+                                ? ImmutableList.of()
+                                : ImmutableList.copyOf(thrown));
+                        return null;
+                    }
+
+                }, ClassReader.SKIP_CODE);
+    }
+
+    // HierarchyClass into one directory, the classes it uses into another
+    private void copyHierarchyClasses(Path input, Path libraries)
+            throws IOException {
+        String name = HierarchyClass.class.getName().replace('.', '/');
+        Path source = this.loadedPath.resolve(name).getParent();
+        String simpleName = HierarchyClass.class.getSimpleName();
+        for (Path file : listFiles(source)) {
+            String fileName = file.getFileName().toString();
+            Path target = null;
+            if (fileName.equals(simpleName + ".class")) {
+                target = input.resolve(name + ".class");
+            } else if (fileName.startsWith(simpleName + "$")) {
+                target = libraries.resolve(name).resolveSibling(fileName);
+            }
+            if (target != null) {
+                Files.createDirectories(target.getParent());
+                Files.copy(source.resolve(file), target);
+            }
+        }
+    }
+
+    private static void runHierarchyClass(Path output, Path classPathJar)
+            throws Exception {
+        try (URLClassLoader loader =
+                new URLClassLoader(new URL[] { output.toUri().toURL(),
+                        classPathJar.toUri().toURL() }, null)) {
+            loader.loadClass(HierarchyClass.class.getName())
+                    .getMethod("main", String[].class)
+                    .invoke(null, (Object) new String[] {});
+        }
+    }
+
+    // a class with only a main, which prints how many methods it declares
+    private static byte[] generateProbe(String name) {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER,
+                     name, null, "java/lang/Object", null);
+        MethodVisitor main =
+                writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC,
+                                   "main", "([Ljava/lang/String;)V", null,
+                                   null);
+        main.visitCode();
+        main.visitFieldInsn(Opcodes.GETSTATIC, "java/lang/System", "out",
+                            "Ljava/io/PrintStream;");
+        main.visitLdcInsn(Type.getObjectType(name));
+        main.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/Class",
+                             "getDeclaredMethods",
+                             "()[Ljava/lang/reflect/Method;", false);
+        main.visitInsn(Opcodes.ARRAYLENGTH);
+        main.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/io/PrintStream",
+                             "println", "(I)V", false);
+        main.visitInsn(Opcodes.RETURN);
+        main.visitMaxs(0, 0);
+        main.visitEnd();
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    // the compiled test classes, and a file that isn't a class
+    private Path inputWithResource() throws IOException {
+        Path input = this.testcases.resolve("input");
+        for (Path file : listFiles(this.loadedPath)) {
+            Path target = input.resolve(file.toString());
+            Files.createDirectories(target.getParent());
+            Files.copy(this.loadedPath.resolve(file), target);
+        }
+        Files.write(input.resolve("resource.txt"),
+                    "resource".getBytes(StandardCharsets.UTF_8));
+        return input;
+    }
+
+    private static void writeJar(Path directory, Path jar) throws IOException {
+        try (JarOutputStream out =
+                new JarOutputStream(Files.newOutputStream(jar))) {
+            for (Path file : listFiles(directory)) {
+                out.putNextEntry(new JarEntry(file.toString()
+                        .replace(File.separatorChar, '/')));
+                out.write(Files.readAllBytes(directory.resolve(file)));
+                out.closeEntry();
+            }
+        }
+    }
+
+    private static void awaitSameFiles(Path expected, Path actual)
+            throws Exception {
+        await(() -> {
+            List<Path> files = listFiles(expected);
+            if (!Files.isDirectory(actual)
+                    || !files.equals(listFiles(actual))) {
+                return false;
+            }
+            for (Path file : files) {
+                if (!Arrays.equals(Files.readAllBytes(expected.resolve(file)),
+                                   Files.readAllBytes(actual.resolve(file)))) {
+                    return false;
+                }
+            }
+            return true;
+        });
+    }
+
+    private static void await(Callable<Boolean> condition) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (!condition.call()) {
+            assertTrue("timed out", System.nanoTime() < deadline);
+            Thread.sleep(50);
+        }
+    }
+
+    private static List<Path> listFiles(Path root) throws IOException {
+        try (Stream<Path> walk = Files.walk(root)) {
+            return walk.filter(Files::isRegularFile).map(root::relativize)
+                    .sorted().collect(Collectors.toList());
+        }
     }
 
 }
@@ -0,0 +1,24 @@
+package com.techshroom.obf.methodup.test.hierarchy;
+
+@SuppressWarnings("javadoc")
+public class HierarchyClass {
+
+    public static class Parent {
+    }
+
+    public static class A extends Parent {
+    }
+
+    public static class B extends Parent {
+    }
+
+    public static void main(String[] args) {
+        System.err.println("Hello " + pick(args.length == 0));
+    }
+
+    // the frame after the branches needs the common super class of A and B
+    private static Parent pick(boolean a) {
+        return a ? new A() : new B();
+    }
+
+}
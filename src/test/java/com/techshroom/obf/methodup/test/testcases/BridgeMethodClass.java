@@ -0,0 +1,18 @@
+package com.techshroom.obf.methodup.test.testcases;
+
+import java.util.function.Supplier;
+
+@SuppressWarnings("javadoc")
+public class BridgeMethodClass implements Supplier<String> {
+
+    public static void main(String[] args) {
+        Supplier<?> supplier = new BridgeMethodClass();
+        System.err.println(supplier.get());
+    }
+
+    @Override
+    public String get() {
+        return "Hello bridges!";
+    }
+
+}
@@ -0,0 +1,18 @@
+package com.techshroom.obf.methodup.test.testcases;
+
+import java.io.IOException;
+
+@SuppressWarnings("javadoc")
+public class DeprecatedThrowingClass {
+
+    public static void main(String[] args) throws IOException {
+        System.err.println(read());
+    }
+
+    // what lean decoys leave out
+    @Deprecated
+    static String read() throws IOException {
+        return "Hello lean decoys!";
+    }
+
+}